@@ -76,6 +76,9 @@ public class AutoClientTesting {
 
             }
 
+            //final status in a single round trip
+            clientSocket.pipeline(currentLoggedUser, Command.FRIENDS, Command.SCORE, Command.RANKING);
+
             clientSocket.handler(Command.LOGOUT, currentLoggedUser, "", pass);
             System.out.println("User " + currentLoggedUser + " has logged out");
         } catch (Exception e) {
@@ -56,47 +56,73 @@ class ClientNetworkHandler implements AutoCloseable{
             case REGISTER:
                 serverObject.registerUser(user1, pass);
                 return RESPONSE_OK;
-            case LOGIN:
-                writeRequest(client, Consts.getRequestLogin(user1, pass, udpClient.getUDPPort()));
-                break;
-            case LOGOUT:
-                writeRequest(client, Consts.getRequestLogout(user1));
-                break;
-            case ADD_FRIEND:
-                writeRequest(client, Consts.getRequestAddFriend(user1, user2));
-                break;
             case CHALLENGE:
                 if (udpClient.requestChallenge(user1, user2))
                     return CHALLENGE_OK;
                 else
                     return CHALLENGE_REFUSED;
+        }
+        writeRequest(client, getRequest(command, user1, user2, pass));
+        return readResponse();
+    }
+
+    /**
+     * Sends all the given requests at once and then waits for their responses,
+     * paying a single round trip. Only commands going through TCP are allowed
+     * @param user The user who made the requests
+     * @param commands The commands to be executed, they must not need a second user or a password
+     * @return The responses from the server, in the same order of the commands
+     */
+    String[] pipeline(String user, Command... commands) throws IOException {
+        for (Command command : commands)
+            writeRequest(client, getRequest(command, user, "", ""));
+
+        String[] responses = new String[commands.length];
+        for (int i = 0; i < responses.length; i++)
+            responses[i] = readResponse();
+        return responses;
+    }
+
+    /**
+     * @return The TCP request corresponding to the given command
+     * @throws IllegalArgumentException If the command is not sent through TCP
+     */
+    private String getRequest(Command command, String user1, String user2, String pass) {
+        switch (command) {
+            case LOGIN:
+                return Consts.getRequestLogin(user1, pass, udpClient.getUDPPort());
+            case LOGOUT:
+                return Consts.getRequestLogout(user1);
+            case ADD_FRIEND:
+                return Consts.getRequestAddFriend(user1, user2);
             case RANKING:
-                writeRequest(client, Consts.getRequestRankings(user1));
-                break;
+                return Consts.getRequestRankings(user1);
             case SCORE:
-                writeRequest(client, Consts.getRequestScore(user1));
-                break;
+                return Consts.getRequestScore(user1);
             case FRIENDS:
-                writeRequest(client, Consts.getRequestFriends(user1));
-                break;
+                return Consts.getRequestFriends(user1);
+            default:
+                throw new IllegalArgumentException(command + " is not a TCP request");
         }
-        return readResponse();
     }
 
     /**
-     * Writes through a socketChannel the requested string using nio
+     * Writes through a socketChannel the requested string using nio,
+     * the request is preceded by its size so that the server can tell requests apart
      * @param client The socket channel
      * @param requestString The string to write
      */
     private void writeRequest(SocketChannel client, String requestString) throws IOException {
-        ByteBuffer byteBuffer = ByteBuffer.wrap(requestString.getBytes(StandardCharsets.UTF_8));
+        byte[] request = requestString.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(INT_SIZE + request.length);
+        byteBuffer.putInt(request.length);
+        byteBuffer.put(request);
+        byteBuffer.flip();
         while (byteBuffer.hasRemaining())
             client.write(byteBuffer);
 
-        byteBuffer.rewind();
-        String message = new String(byteBuffer.array(), 0, byteBuffer.remaining(), StandardCharsets.UTF_8);
         if(test)
-            System.out.println(Thread.currentThread().getName() + " wrote " + message);
+            System.out.println(Thread.currentThread().getName() + " wrote " + requestString);
 
     }
 
@@ -107,14 +133,13 @@ class ClientNetworkHandler implements AutoCloseable{
      */
     private String readResponse() throws IOException {
         ByteBuffer intBuffer = ByteBuffer.allocate(INT_SIZE);
-        client.read(intBuffer);
+        readFully(intBuffer);
         intBuffer.flip();
 
         ByteBuffer byteBuffer = ByteBuffer.allocate(intBuffer.getInt());
-        byteBuffer.clear();
 
         //read response
-        client.read(byteBuffer);
+        readFully(byteBuffer);
         byteBuffer.flip();
         String message = new String(byteBuffer.array(), 0, byteBuffer.remaining(), StandardCharsets.UTF_8);
         if(test)
@@ -122,6 +147,16 @@ class ClientNetworkHandler implements AutoCloseable{
         return message;
     }
 
+    /**
+     * Reads from the socket until the buffer is full
+     */
+    private void readFully(ByteBuffer byteBuffer) throws IOException {
+        while (byteBuffer.hasRemaining()) {
+            if (client.read(byteBuffer) == -1)
+                throw new IOException("Connection closed by the server");
+        }
+    }
+
     /**
      * @return a word iterator for the current challenge
      */
@@ -147,12 +182,8 @@ class ClientNetworkHandler implements AutoCloseable{
         private String errors = ""; //stores all unrecognised string received from server
 
         WordIterator(int matchId, String user) throws IOException {
-            byte[] byteMessage = (REQUEST_READY_FOR_CHALLENGE + " " + matchId + " " + user).getBytes(StandardCharsets.UTF_8);
-            ByteBuffer messageBuffer = ByteBuffer.wrap(byteMessage);
-
             //write ready for challenge
-            while (messageBuffer.hasRemaining())
-                client.write(messageBuffer);
+            writeRequest(client, REQUEST_READY_FOR_CHALLENGE + " " + matchId + " " + user);
             this.matchId = matchId;
             this.user = user;
         }
@@ -173,12 +204,8 @@ class ClientNetworkHandler implements AutoCloseable{
             wordIndex++;
             if (wordIndex > 1) {
                 //send old translation
-                String translationMessage = Consts.getRequestWordTranslation(matchId, user, translatedWord);
-                ByteBuffer messageBuffer = ByteBuffer.wrap(translationMessage.getBytes(StandardCharsets.UTF_8));
-
                 //send translated word
-                while (messageBuffer.hasRemaining())
-                    client.write(messageBuffer);
+                writeRequest(client, Consts.getRequestWordTranslation(matchId, user, translatedWord));
             }
 
             if(wordIndex < CHALLENGE_WORDS_TO_MATCH + 2) {
@@ -251,12 +278,8 @@ class ClientNetworkHandler implements AutoCloseable{
         String getRecap() throws IOException {
             if(hasNext())
                 return null;
-            String recapRequest = Consts.getRequestChallengeRecap(matchId);
-            ByteBuffer messageBuffer = ByteBuffer.wrap(recapRequest.getBytes(StandardCharsets.UTF_8));
-
-            //send translated word
-            while (messageBuffer.hasRemaining())
-                client.write(messageBuffer);
+            //send recap request
+            writeRequest(client, Consts.getRequestChallengeRecap(matchId));
 
             return readResponse();
         }
@@ -51,8 +51,8 @@ public class Constants {
 
 
     //consts to create the translation url
-    private static final String TRANSLATION_URL_BASE = "https://api.mymemory.translated.net/get?q=";
-    private static final String TRANSLATION_URL_TRAIL = "&langpair=it|en";
+    private static final String TRANSLATION_URL_BASE = System.getProperty("wq.translationUrl", "https://api.mymemory.translated.net/get") + "?q="; //may point to a local stub
+    private static final String TRANSLATION_URL_TRAIL = "&langpair=it%7Cen";
     /**
      * Generates an url to translate the word given
      * @param originalWord The word to be translated
@@ -0,0 +1,118 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A server-wide pool of direct byte buffers, divided in size classes
+ *
+ * Connections borrow a buffer only for the time needed to read or write a message,
+ * so idle connections don't keep any memory and sockets can be written without
+ * the copy to a temporary direct buffer done by the JDK for heap buffers
+ *
+ * Uses singleton pattern, thread safety is assured by the use of concurrent queues
+ */
+class BufferPool {
+
+    static final BufferPool instance = new BufferPool(Consts.BUFFER_POOL_SIZES, Consts.BUFFER_POOL_RETAINED);
+
+    private final int[] sizes; //capacity of the buffers of each class, increasing
+    private final ConcurrentLinkedQueue<ByteBuffer>[] freeBuffers; //buffers ready to be borrowed, one queue per class
+    private final AtomicInteger[] freeCount; //size of each free queue, cheaper than ConcurrentLinkedQueue.size()
+    private final int maxRetained; //max number of free buffers kept for each class
+
+    private final AtomicLong hits = new AtomicLong(0); //requests served with a pooled buffer
+    private final AtomicLong misses = new AtomicLong(0); //requests that needed a new allocation
+    private final AtomicInteger outstanding = new AtomicInteger(0); //buffers borrowed and not yet released
+
+    /**
+     * @param sizes The capacity of each size class, in increasing order
+     * @param maxRetained The max number of free buffers kept for each size class
+     */
+    private BufferPool(int[] sizes, int maxRetained) {
+        this.sizes = sizes;
+        this.maxRetained = maxRetained;
+        @SuppressWarnings({"unchecked", "rawtypes"}) //arrays of a generic type can only be created raw
+        ConcurrentLinkedQueue<ByteBuffer>[] queues = new ConcurrentLinkedQueue[sizes.length];
+        freeBuffers = queues;
+        freeCount = new AtomicInteger[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            freeBuffers[i] = new ConcurrentLinkedQueue<>();
+            freeCount[i] = new AtomicInteger(0);
+        }
+    }
+
+    /**
+     * Borrows a cleared buffer of at least the given size,
+     * it must be given back with release() once it is no longer needed
+     * @param size The minimum capacity needed
+     * @return A buffer with position 0 and limit equal to its capacity
+     */
+    ByteBuffer acquire(int size) {
+        outstanding.incrementAndGet();
+        int sizeClass = sizeClass(size);
+        if (sizeClass == -1) {
+            //too big to be pooled
+            misses.incrementAndGet();
+            return ByteBuffer.allocateDirect(size);
+        }
+
+        ByteBuffer buffer = freeBuffers[sizeClass].poll();
+        if (buffer == null) {
+            misses.incrementAndGet();
+            return ByteBuffer.allocateDirect(sizes[sizeClass]);
+        }
+        freeCount[sizeClass].decrementAndGet();
+        hits.incrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Gives back a buffer obtained with acquire(), the buffer must not be used afterwards.
+     * Read only buffers are ignored so that shared responses can be released as any other
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer.isReadOnly())
+            return; //shared read only buffers are never borrowed from the pool
+        outstanding.decrementAndGet();
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass == -1 || sizes[sizeClass] != buffer.capacity())
+            return; //not one of the pooled classes, left to the gc
+        if (freeCount[sizeClass].incrementAndGet() > maxRetained) {
+            freeCount[sizeClass].decrementAndGet(); //class is full, left to the gc
+            return;
+        }
+        buffer.clear();
+        freeBuffers[sizeClass].add(buffer);
+    }
+
+    /**
+     * @return The index of the smallest class that can contain size bytes, -1 if none
+     */
+    private int sizeClass(int size) {
+        for (int i = 0; i < sizes.length; i++) {
+            if (size <= sizes[i])
+                return i;
+        }
+        return -1;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Buffer pool: " + getHits() + " hits, " + getMisses() + " misses, " + getOutstanding() + " outstanding";
+    }
+}
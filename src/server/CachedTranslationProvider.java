@@ -0,0 +1,37 @@
+package server;
+
+import java.util.concurrent.CompletableFuture;
+
+import static commons.Constants.NOT_A_WORD;
+
+/**
+ * Serves the translations from a TranslationCache, asking another provider only for the missing words
+ */
+class CachedTranslationProvider implements TranslationProvider {
+
+    private final TranslationCache cache;
+    private final TranslationProvider source;
+
+    /**
+     * @param cache The cache to be used
+     * @param source The provider of the words which are not cached
+     */
+    CachedTranslationProvider(TranslationCache cache, TranslationProvider source) {
+        this.cache = cache;
+        this.source = source;
+    }
+
+    @Override
+    public CompletableFuture<String[]> translate(String word) {
+        String[] translations = cache.get(word);
+        if (translations != null)
+            return CompletableFuture.completedFuture(translations);
+
+        long startTime = System.nanoTime();
+        return source.translate(word).thenApply(loadedTranslations -> {
+            if (loadedTranslations.length > 0 && !NOT_A_WORD.equals(loadedTranslations[0]))
+                cache.put(word, loadedTranslations, System.nanoTime() - startTime); //failures are not cached
+            return loadedTranslations;
+        });
+    }
+}
@@ -1,24 +1,15 @@
 package server;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Paths;
-import java.util.Random;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static commons.Constants.*;
-import static java.lang.Math.abs;
 import static server.ChallengeExceptions.*;
 
 /**
@@ -29,15 +20,64 @@ import static server.ChallengeExceptions.*;
  *
  * Thread safety is assured by the use of a concurrent hash map
  *
- * Contains an inner class for handling challenge info
+ * Finished challenges are kept for a grace period, then they are replaced by
+ * a compact archived copy in a bounded archive, so that the live map doesn't grow without bound
+ *
+ * Contains two inner classes for handling challenge info
  */
 class ChallengeHandler {
 
-    static final ChallengeHandler instance = new ChallengeHandler();
+    //must be loaded before the instance, which takes its words and translations from them
+    private static final TranslationDictionary offlineDictionary = loadOfflineDictionary(); //null when translating online
+    private static final TranslationProvider translationProvider = newTranslationProvider();
+    static final ChallengeHandler instance = offlineDictionary != null ? new ChallengeHandler(offlineDictionary) : new ChallengeHandler();
 
-    private String[] dictionary = null;
+    private WordList dictionary = null;
+    private WordSampler sampler = null; //picks the words of the challenges from the dictionary
+    private TranslationTable translationTable = null; //translations of the dictionary words, shared by the challenges
     private static final ConcurrentHashMap<Integer, Challenge> challenges = new ConcurrentHashMap<>();
+    private static final Clock clock = new Clock(Consts.CLOCK_SPEED); //time of the challenges, faster than real time only for testing
+    private static final TimingWheel timer = new TimingWheel(Consts.TIMER_TICK, Consts.TIMER_WHEEL_SIZE, clock); //challenge deadlines
+    //the most recent archived challenges, the oldest are dropped when full
+    private static final Map<Integer, ArchivedChallenge> archive = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ArchivedChallenge> eldest) {
+            return size() > Consts.CHALLENGE_ARCHIVE_SIZE;
+        }
+    });
+    private static final AtomicLong archivedCount = new AtomicLong(0); //challenges moved to the archive since start
+    private static final ChallengePool challengePool = new ChallengePool(Consts.CHALLENGE_POOL_SIZE,
+            Consts.CHALLENGE_POOL_LOW_WATER_MARK, () -> instance.newWordSet()); //words of the next challenges
+    private static final ConcurrentHashMap<Integer, WordSampler.RecentWords> recentWords = new ConcurrentHashMap<>(); //last words seen by each user
+
+
+    /**
+     * Maps the offline dictionary if selected by Consts.TRANSLATION_PROVIDER
+     * @return The dictionary, null if not selected or if it cannot be read
+     */
+    private static TranslationDictionary loadOfflineDictionary() {
+        if(!Consts.TRANSLATION_PROVIDER.equals(Consts.TRANSLATIONS_OFFLINE))
+            return null;
+        try {
+            return new TranslationDictionary(Consts.OFFLINE_TRANSLATIONS_FILENAME);
+        } catch (IOException e) {
+            System.err.println("Offline translations not available, using " + Consts.TRANSLATIONS_HTTP + ": " + e);
+            return null;
+        }
+    }
 
+    /**
+     * Creates the translation provider selected by Consts.TRANSLATION_PROVIDER:
+     * the web API behind the translation cache, or the offline dictionary.
+     * Falls back to the web API if the offline dictionary cannot be read
+     */
+    private static TranslationProvider newTranslationProvider() {
+        if(offlineDictionary != null)
+            return new OfflineTranslationProvider(offlineDictionary);
+        //concurrent lookups of the same word are coalesced before reaching the cache
+        return new SingleFlightTranslationProvider(
+                new CachedTranslationProvider(TranslationCache.instance, new HttpTranslationProvider(Consts.TRANSLATION_THREADS)));
+    }
 
     /**
      * private constructor that uses the default filename for the dictionary
@@ -46,69 +86,28 @@ class ChallengeHandler {
         this(Consts.DICTIONARY_FILENAME);
     }
 
+    /**
+     * Takes the challenges words from the offline dictionary, so that every word has a translation
+     * @param translationDictionary The offline dictionary
+     */
+    private ChallengeHandler(TranslationDictionary translationDictionary){
+        dictionary = translationDictionary.getWords();
+        sampler = new WordSampler(dictionary.size(), 0); //words are sorted alphabetically, no frequency information
+        translationTable = new TranslationTable(dictionary, translationProvider);
+    }
+
     /**
      * Initializes the challenges dictionary from file
      * @param filename File containing the dictionary. Must have the size of the dictionary as a string in the first line
      */
     private ChallengeHandler(String filename){
         try {
-            FileChannel inChannel = FileChannel.open(Paths.get(filename)); //file has a word per line
-            int dictionaryIndex = 0;
-            int dictionaryLength;
-            ByteBuffer wordBuffer = ByteBuffer.allocate(Consts.ITALIAN_WORD_MAX_LENGTH + 1);
-            String words; //stores the string from the buffer
-            String[] wordsFragments; //stores the different lines contained in 'words'
-
-            //first line must contain the size of the dictionary as a string
-            //reading first lines
-            inChannel.read(wordBuffer);
-            wordBuffer.flip();
-            words = new String(wordBuffer.array(), 0, wordBuffer.limit(), StandardCharsets.UTF_8);
-            wordsFragments = words.split("\n");
-            dictionaryLength = Integer.parseInt(wordsFragments[0]); //first lines is the size
-
-            //create the dictionary
-            dictionary = new String[dictionaryLength];
-
-            //store in the dictionary the overflowing words caught with the first read
-            for(int i = 1; i < wordsFragments.length; i++){
-                dictionary[dictionaryIndex] = wordsFragments[i];
-                dictionaryIndex++;
-            }
-
-            //last word read was incomplete
-            if(words.charAt(words.length() - 1) != '\n')
-                dictionaryIndex--; //next time add to last word
-
-
-            //read all file
-            while (inChannel.read(wordBuffer) != -1){
-                wordBuffer.flip();
-                words = new String(wordBuffer.array(), 0, wordBuffer.limit(), StandardCharsets.UTF_8);
-                wordsFragments = words.split("\n");
-
-                //if first character is a newline then last word read is complete
-                if(words.charAt(0) == '\n')
-                    dictionaryIndex++;
-
-                for(String word: wordsFragments){
-                    if(!word.isBlank()) {
-                        if (dictionary[dictionaryIndex] == null)
-                            dictionary[dictionaryIndex] = word;
-                        else
-                            dictionary[dictionaryIndex] += word;
-
-                        dictionaryIndex++;
-                    }
-                }
-
-                if(words.charAt(words.length() - 1) != '\n')
-                    dictionaryIndex--;
-            }
+            dictionary = WordList.load(filename);
+            //the file is grouped by part of speech, its order is not a frequency rank
+            sampler = new WordSampler(dictionary.size(), 0);
+            translationTable = new TranslationTable(dictionary, translationProvider);
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (ArrayIndexOutOfBoundsException e){
-            System.err.println("Given dictionary size is lower than actual size");
         }
     }
 
@@ -117,71 +116,161 @@ class ChallengeHandler {
      * @param user The user request a new word
      * @return The word to be translated
      */
-    String getNextWord(int matchId, String user) throws EndOfMatchException, UnknownUsernameException {
-        return challenges.get(matchId).getNextWord(user);
+    String getNextWord(int matchId, int user) throws EndOfMatchException, UnknownUsernameException {
+        return dictionary.get(challenges.get(matchId).getNextWord(user));
+    }
+
+    /**
+     * Picks distinct random words from the dictionary and starts resolving their translations,
+     * words are repeated only if the dictionary has fewer than CHALLENGE_WORDS_TO_MATCH words
+     * @param avoid The recent words of the users, avoided while the dictionary makes it possible
+     * @return The words for a challenge
+     */
+    private ChallengePool.WordSet newWordSet(WordSampler.RecentWords... avoid) {
+        int[] wordIds = new int[CHALLENGE_WORDS_TO_MATCH];
+        CompletableFuture<?>[] translations = new CompletableFuture<?>[CHALLENGE_WORDS_TO_MATCH];
+
+        for(int i = 0; i < wordIds.length; i++){
+            int attempts = 0;
+            do {
+                wordIds[i] = sampler.sample();
+                attempts++;
+            } while (attempts < Consts.WORD_SAMPLING_ATTEMPTS && (isPicked(wordIds, i) || isRecent(wordIds[i], avoid)));
+            //a repeated word is accepted only if the dictionary has too few words
+            for(int shift = 0; shift < dictionary.size() && isPicked(wordIds, i); shift++)
+                wordIds[i] = (wordIds[i] + 1) % dictionary.size();
+            translations[i] = translationTable.get(wordIds[i]);
+        }
+        return new ChallengePool.WordSet(wordIds, CompletableFuture.allOf(translations));
+    }
+
+    /**
+     * @return true if the word at the given position was already picked in one of the previous positions
+     */
+    private static boolean isPicked(int[] wordIds, int position) {
+        for(int i = 0; i < position; i++){
+            if(wordIds[i] == wordIds[position])
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isRecent(int wordId, WordSampler.RecentWords[] recentWords) {
+        for(WordSampler.RecentWords userRecentWords : recentWords){
+            if(userRecentWords.contains(wordId))
+                return true;
+        }
+        return false;
     }
 
     /**
-     * Creates a challenge and adds it to the list
-     * @param user1 First user of the challenge
-     * @param user2 Second user of the challenge
+     * Creates a challenge and adds it to the list, its words are taken from the
+     * challenge pool so that their translations are usually already resolved.
+     * Sets with words that any of the users has seen recently are skipped
+     * @param user1 Id of the first user of the challenge
+     * @param user2 Id of the second user of the challenge
      * @return The id of the challenge
      */
-    int createChallenge(String user1, String user2){
-        Challenge newChallenge = new Challenge(user1, user2, dictionary);
+    int createChallenge(int user1, int user2){
+        WordSampler.RecentWords recentWords1 = recentWords.computeIfAbsent(user1, user -> new WordSampler.RecentWords(Consts.RECENT_WORDS_PER_USER));
+        WordSampler.RecentWords recentWords2 = recentWords.computeIfAbsent(user2, user -> new WordSampler.RecentWords(Consts.RECENT_WORDS_PER_USER));
+        ChallengePool.WordSet wordSet = challengePool.poll(
+                set -> !recentWords1.containsAny(set.wordIds) && !recentWords2.containsAny(set.wordIds),
+                Consts.CHALLENGE_POOL_MAX_SKIPS);
+        if(wordSet == null)
+            wordSet = newWordSet(recentWords1, recentWords2); //translations are resolved in background
+        recentWords1.add(wordSet.wordIds);
+        recentWords2.add(wordSet.wordIds);
+
+        Challenge newChallenge = new Challenge(user1, user2, wordSet.wordIds);
         challenges.put(newChallenge.id, newChallenge);
+        //also collects the challenges that never start
+        newChallenge.scheduleArchive(Consts.CHALLENGE_TIMEOUT + Consts.CHALLENGE_ARCHIVE_DELAY);
         return newChallenge.id;
     }
 
     /**
-     * Gets a recap of the match
+     * Moves the challenge from the live map to the archive if it is over,
+     * otherwise it tries again after the grace period
+     */
+    private static void archive(Challenge challenge) {
+        challenge.checkFinished(false);
+        if(!challenge.getTermination().isDone()) {
+            challenge.scheduleArchive(Consts.CHALLENGE_ARCHIVE_DELAY);
+            return;
+        }
+        //archived before leaving the live map, so that a recap request always finds it in one of the two
+        archive.put(challenge.id, challenge.toArchived());
+        if(challenges.remove(challenge.id, challenge))
+            archivedCount.incrementAndGet();
+    }
+
+    /**
+     * @return The number of challenges kept in memory with all their data
+     */
+    int getLiveChallenges() {
+        return challenges.size();
+    }
+
+    /**
+     * @return The number of challenges in the archive
+     */
+    int getArchivedChallenges() {
+        return archive.size();
+    }
+
+    @Override
+    public String toString() {
+        return "Challenges: " + getLiveChallenges() + " live, " + getArchivedChallenges() + " archived, "
+                + archivedCount.get() + " archived since start, " + timer.getPending() + " pending deadlines\n" + challengePool;
+    }
+
+    /**
+     * Gets a recap of the match once it is over, waiting costs nothing as
+     * the recap is produced by whoever terminates the challenge
      * @param matchId The match id
-     * @return A string with the recap
+     * @return A future completed with a string with the recap,
+     * or with an unknown request response if the match doesn't exist or was dropped from the archive
      */
-    String getRecap(int matchId) {
-        return challenges.get(matchId).toString();
+    CompletableFuture<String> getRecap(int matchId) {
+        Challenge challenge = challenges.get(matchId);
+        if(challenge == null) {
+            ArchivedChallenge archivedChallenge = archive.get(matchId);
+            if(archivedChallenge != null)
+                return CompletableFuture.completedFuture(archivedChallenge.toString());
+            return CompletableFuture.completedFuture(Consts.RESPONSE_UNKNOWN_REQUEST);
+        }
+        challenge.checkFinished(true);
+        return challenge.getTermination().thenApply(Challenge::toString);
     }
 
 
     /**
-     * Checks the correctness of the translation and updates the user score
+     * Checks the correctness of the translation and updates the user score,
+     * the translation is compared ignoring case and surrounding spaces
      * @param user The user who sent the translation
      * @param userTranslatedWord The word translated by the user
-     * @return The translation of the word
+     * @return The response for the user, with the outcome and the correct translation
      */
-    String checkTranslation(int matchId, String user, String userTranslatedWord) throws UnknownUsernameException, GameTimeoutException {
+    String checkTranslation(int matchId, int user, String userTranslatedWord) throws UnknownUsernameException, GameTimeoutException {
         Challenge challenge = challenges.get(matchId);
-        String[] translatedWord = challenge.getUserLastWordTranslation(user);
-        String correctTranslation = translatedWord[0];
-        boolean outcome = false;
-        int i = 0;
-        while (i < translatedWord.length && !outcome){
-            if(userTranslatedWord.equals(translatedWord[i])) {
-                outcome = true;
-                correctTranslation = translatedWord[i];
-            }
-            i++;
-        }
+        //waits for the translations only if they are still being resolved
+        TranslationTable.Entry translations = translationTable.get(challenge.getUserLastWord(user)).join();
+        boolean outcome = translations.accepts(TranslationTable.normalize(userTranslatedWord));
         if(outcome){
             challenge.updateScore(user, Consts.WIN_SCORE_AMOUNT);
         }else{
             challenge.updateScore(user, Consts.LOSE_SCORE_AMOUNT);
         }
-        return correctTranslation;
-    }
-
-    /**
-     * @return true if the challenge with the given matchId has ended
-     */
-    boolean challengeIsFinished(int matchId) {
-        return challenges.get(matchId).isFinished();
+        String correctTranslation = outcome ? userTranslatedWord : translations.getTranslation();
+        return Consts.getResponseTranslationServer(matchId, userTranslatedWord, correctTranslation, outcome);
     }
 
     /**
      * @return The time remaining for the challenge the matches the given matchId
      */
     long getTime(int matchId) {
-        return Consts.CHALLENGE_TIMEOUT - System.currentTimeMillis() + challenges.get(matchId).challengeTimestamp;
+        return Consts.CHALLENGE_TIMEOUT - clock.millis() + challenges.get(matchId).challengeTimestamp;
     }
 
     /**
@@ -196,61 +285,81 @@ class ChallengeHandler {
         private static final AtomicInteger idCounter = new AtomicInteger(0); //every challenge has its id assigned at construction time
 
         private final int id; //challenge id
-        private final String user1; //first user of the challenge
-        private final String user2; //second user of the challenge
+        private final int user1; //id of the first user of the challenge
+        private final int user2; //id of the second user of the challenge
         private long challengeTimestamp = 0; //time at which the challenge started
         private int user1CompletedWords = 0;
         private int user2CompletedWords = 0;
         private int user1Score = 0;
         private int user2Score = 0;
         private int finished = 0; //stores whether or not the challenge is over (0 -> not, 1 -> just one user, 2 -> both, > 2 -> The challenge is over and win points have been awarded)
-        private final String[] selectedWords = new String[CHALLENGE_WORDS_TO_MATCH]; //contains selected words to be translated
-        private final String[][] translatedWords = new String[CHALLENGE_WORDS_TO_MATCH][Consts.MAX_TRANSLATIONS_PER_WORD]; //contains all the correct translations for the words in selectedWords
-        private final static Random random = new Random(System.currentTimeMillis()); //random generator to get the challenge words
+        private final int[] selectedWords; //ids of the words to be translated
+        private final CompletableFuture<Challenge> termination = new CompletableFuture<>(); //completed when the challenge is over
+        private TimingWheel.Timeout deadline = null; //armed when the first word is served
+        private TimingWheel.Timeout archiving = null; //the only archiving scheduled for the challenge
 
         /**
          * Creates a challenge and assigns it a new ID
-         * @param user1 The first user involved in the challenge
-         * @param user2 The first user involved in the challenge
-         * @param dictionary An array of words from which to pick the ones needed for the challenge
+         * @param user1 The id of the first user involved in the challenge
+         * @param user2 The id of the second user involved in the challenge
+         * @param selectedWords The ids of the words of the challenge
          */
-        Challenge(String user1, String user2, String[] dictionary){
+        Challenge(int user1, int user2, int[] selectedWords){
             this.user1 = user1;
             this.user2 = user2;
             id = idCounter.getAndIncrement();
-
-            for(int i = 0; i < selectedWords.length; i++){
-                selectedWords[i] = dictionary[abs(random.nextInt() % dictionary.length)];
-            }
-
-            for(int i = 0; i < selectedWords.length; i++){
-                String[] translatedWord = getTranslation(selectedWords[i]);
-                translatedWords[i] = translatedWord == null ? new String[]{""} : translatedWord;
-            }
+            this.selectedWords = selectedWords;
         }
 
         boolean isFinished(){
             return finished > 1 || timeout();
         }
 
+        /**
+         * @return A future completed with this challenge once it is over and the scores have been awarded
+         */
+        CompletableFuture<Challenge> getTermination() {
+            return termination;
+        }
+
+        /**
+         * Terminates the challenge if it is already over (es. it timed out without any request)
+         * @param awaitDurable false when called by the timer, see terminate()
+         */
+        synchronized void checkFinished(boolean awaitDurable) {
+            if(isFinished() && finished < 3)
+                terminate(awaitDurable);
+        }
+
+        /**
+         * Called by the timer when the time for the challenge has ended,
+         * terminates it if still in progress so that points are awarded and waiters released
+         */
+        synchronized void expire() {
+            if(finished < 3)
+                terminate(false);
+        }
+
         /**
          * @return true if the time for the challenge has ended
          */
         boolean timeout(){
-            return System.currentTimeMillis() - challengeTimestamp >= Consts.CHALLENGE_TIMEOUT;
+            return clock.millis() - challengeTimestamp >= Consts.CHALLENGE_TIMEOUT;
         }
 
         /**
          * Retrieves next word to be sent and sets the timer for the challenge if needed
          * @param user The user who wants the next word
-         * @return Next word to be translated
+         * @return The id of the next word to be translated
          * @throws EndOfMatchException When the challenge is over so no words can be provided
          * @throws UnknownUsernameException When the given user is not in the challenge
          */
-        synchronized String getNextWord(String user) throws EndOfMatchException, UnknownUsernameException {
-            if(challengeTimestamp == 0)
-                challengeTimestamp = System.currentTimeMillis();
-            if(user.equals(user1)) {
+        synchronized int getNextWord(int user) throws EndOfMatchException, UnknownUsernameException {
+            if(challengeTimestamp == 0) {
+                challengeTimestamp = clock.millis();
+                deadline = timer.schedule(this::expire, Consts.CHALLENGE_TIMEOUT);
+            }
+            if(user == user1) {
                 if(user1CompletedWords < CHALLENGE_WORDS_TO_MATCH)
                     return selectedWords[user1CompletedWords++];
                 else {
@@ -258,7 +367,7 @@ class ChallengeHandler {
                     checkTermination();
                     throw new EndOfMatchException();
                 }
-            }else if(user.equals(user2)) {
+            }else if(user == user2) {
                 if(user2CompletedWords < CHALLENGE_WORDS_TO_MATCH)
                     return selectedWords[user2CompletedWords++];
                 else {
@@ -268,22 +377,44 @@ class ChallengeHandler {
                 }
             }
             //no match for the username
-            throw new UnknownUsernameException("User " + user + " was not found in: " + user1 + " " + user2);
+            throw new UnknownUsernameException("User id " + user + " was not found in: " + user1 + " " + user2);
         }
 
         /**
          * If the challenge has ended it updated the score of the users in the db
          */
         private void checkTermination() {
-            if(isFinished() && finished < 3){
-                finished = 10; //arbitrary number
-                if(user1Score > user2Score)
-                    user1Score += Consts.WIN_BONUS_POINTS;
-                else if (user2Score > user1Score)
-                    user2Score += Consts.WIN_BONUS_POINTS;
-                UserDB.instance.updateScore(user1, user1Score, id);
-                UserDB.instance.updateScore(user2, user2Score, id);
-            }
+            if(isFinished() && finished < 3)
+                terminate(true);
+        }
+
+        /**
+         * Awards the points to the users and notifies who is waiting for the end of the challenge
+         * @param awaitDurable false when called by the timer, which doesn't wait for the scores to be on disk
+         *                     so that a slow fsync doesn't delay the deadlines of the other challenges
+         */
+        private void terminate(boolean awaitDurable) {
+            finished = 10; //arbitrary number
+            if(user1Score > user2Score)
+                user1Score += Consts.WIN_BONUS_POINTS;
+            else if (user2Score > user1Score)
+                user2Score += Consts.WIN_BONUS_POINTS;
+            UserDB.instance.updateScore(user1, user1Score, id, awaitDurable);
+            UserDB.instance.updateScore(user2, user2Score, id, awaitDurable);
+            if(deadline != null)
+                deadline.cancel();
+            scheduleArchive(Consts.CHALLENGE_ARCHIVE_DELAY);
+            termination.complete(this);
+        }
+
+        /**
+         * Schedules the archiving of the challenge after the given delay,
+         * replacing the one already scheduled so that no dead entry is left in the timer
+         */
+        synchronized void scheduleArchive(long delay) {
+            if(archiving != null)
+                archiving.cancel(); //has no effect if it is the one being run
+            archiving = timer.schedule(() -> archive(this), delay);
         }
 
         /**
@@ -293,8 +424,8 @@ class ChallengeHandler {
          * @throws GameTimeoutException If the challenge timed out so the score cannot be updated
          * @throws UnknownUsernameException When the given user is not in the challenge
          */
-        synchronized void updateScore(String user, int amount) throws GameTimeoutException, UnknownUsernameException {
-            if(user.equals(user1)) {
+        synchronized void updateScore(int user, int amount) throws GameTimeoutException, UnknownUsernameException {
+            if(user == user1) {
                 if(timeout()){
                     finished++;
                     checkTermination();
@@ -303,7 +434,7 @@ class ChallengeHandler {
                 user1Score += amount;
                 return;
             }
-            else if(user.equals(user2)) {
+            else if(user == user2) {
                 if(timeout()){
                     finished++;
                     checkTermination();
@@ -313,67 +444,68 @@ class ChallengeHandler {
                 return;
             }
             //no username matches found
-            throw new UnknownUsernameException("User " + user + " was not found in: " + user1 + user2);
+            throw new UnknownUsernameException("User id " + user + " was not found in: " + user1 + " " + user2);
         }
 
         /**
-         * Retrieves some correct translation of the given word
-         * @param originalWord The original word to be translated
-         * @return An array of correct translations
+         * @return The id of the last word that was sent to the given user
+         * @throws UnknownUsernameException When the given user is not in the challenge
          */
-        private String[] getTranslation(String originalWord) {
-            try {
-                URL url = new URL(getTranslationURL(originalWord));
-                try(var inputStream = new BufferedReader(new InputStreamReader(url.openStream()))){
-                    StringBuilder stringBuilder = new StringBuilder();
-                    Gson gson = new Gson();
-                    String line;
-
-                    while((line = inputStream.readLine()) != null){
-                        stringBuilder.append(line);
-                    }
-                    JsonObject jsonObject = gson.fromJson(stringBuilder.toString(), JsonObject.class);
-
-                    String[] translations = new String[Consts.MAX_TRANSLATIONS_PER_WORD];
-                    translations[0] = jsonObject.get("responseData").getAsJsonObject().get("translatedText").getAsString();
-                    JsonArray jsonArray = jsonObject.getAsJsonArray("matches");
-                    int i = 0;
-                    while (i < translations.length - 1 && i < jsonArray.size()){
-                        translations[i] = jsonArray.get(i).getAsJsonObject().get("translation").getAsString();
-                        i++;
-                    }
-                    return translations;
-
-                }catch (IOException e){
-                    e.printStackTrace();
-                }
-            } catch (MalformedURLException e) {
-                e.printStackTrace();
+        synchronized int getUserLastWord(int user) throws UnknownUsernameException {
+            if(user == user1) {
+                return selectedWords[user1CompletedWords - 1];
+            }if(user == user2) {
+                return selectedWords[user2CompletedWords - 1];
             }
-
-            return new String[]{NOT_A_WORD};
+            throw new UnknownUsernameException("User id " + user + " was not found in: " + user1 + " " + user2);
         }
 
         /**
-         * Retrieves the correct translations for the last word that was sent to the given user
-         * @return An array with the correct translations
-         * @throws UnknownUsernameException When the given user is not in the challenge
+         * @return A compact copy of the outcome of the challenge, to be called once it is over
          */
-        String[] getUserLastWordTranslation(String user) throws UnknownUsernameException {
-            if(user.equals(user1)) {
-                return translatedWords[user1CompletedWords - 1];
-            }if(user.equals(user2)) {
-                return translatedWords[user2CompletedWords - 1];
-            }
-            throw new UnknownUsernameException("User " + user + " was not found in: " + user1 + user2);
+        synchronized ArchivedChallenge toArchived() {
+            return new ArchivedChallenge(id, user1, user2, user1Score, user2Score, challengeTimestamp);
+        }
+
+        @Override
+        public String toString() {
+            return getRecap(challengeTimestamp, user1, user1Score, user2, user2Score);
+        }
+    }
+
+    /**
+     * @return The recap of a challenge with the given outcome, with the names of the users
+     */
+    private static String getRecap(long challengeTimestamp, int user1, int user1Score, int user2, int user2Score) {
+        String recap = "Time elapsed since the beginning of the challenge: " + (clock.millis() - challengeTimestamp)/1000 + " s\n";
+        recap += "User " + UserDB.instance.getUser(user1).getName() + " scored a total of " + user1Score + " points" + "\n";
+        recap += "User " + UserDB.instance.getUser(user2).getName() + " scored a total of " + user2Score + " points";
+        return recap;
+    }
+
+    /**
+     * The outcome of a finished challenge, all that is kept once it is archived
+     */
+    static class ArchivedChallenge {
+        private final int id;
+        private final int user1; //user ids, names are resolved only for the recap
+        private final int user2;
+        private final int user1Score;
+        private final int user2Score;
+        private final long challengeTimestamp; //time at which the challenge started
+
+        private ArchivedChallenge(int id, int user1, int user2, int user1Score, int user2Score, long challengeTimestamp) {
+            this.id = id;
+            this.user1 = user1;
+            this.user2 = user2;
+            this.user1Score = user1Score;
+            this.user2Score = user2Score;
+            this.challengeTimestamp = challengeTimestamp;
         }
 
         @Override
         public String toString() {
-            String recap = "Time elapsed since the beginning of the challenge: " + (System.currentTimeMillis() - challengeTimestamp)/1000 + " s\n";
-            recap += "User " + user1 + " scored a total of " + user1Score + " points" + "\n";
-            recap += "User " + user2 + " scored a total of " + user2Score + " points";
-            return recap;
+            return getRecap(challengeTimestamp, user1, user1Score, user2, user2Score);
         }
     }
 
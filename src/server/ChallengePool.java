@@ -0,0 +1,131 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of word sets ready to be used by new challenges, with their translations already resolved
+ *
+ * A background producer refills the pool up to its capacity every time it drops to the low water mark,
+ * so that creating a challenge doesn't wait for the translations. When the pool is empty, or none of the
+ * sets looked at is acceptable, the caller has to generate its own set
+ */
+class ChallengePool {
+
+    private final ArrayBlockingQueue<WordSet> pool;
+    private final int lowWaterMark;
+    private final Supplier<WordSet> generator; //creates a set whose translations are being resolved
+
+    private final ReentrantLock refillLock = new ReentrantLock();
+    private final Condition refillNeeded = refillLock.newCondition();
+
+    private final AtomicLong produced = new AtomicLong(0); //sets added to the pool
+    private final AtomicLong starvations = new AtomicLong(0); //sets requested while the pool was empty
+    private final AtomicLong skipped = new AtomicLong(0); //sets looked at and not acceptable
+
+    /**
+     * Creates the pool and starts its producer
+     * @param capacity The max number of sets in the pool
+     * @param lowWaterMark The number of sets under which the pool is refilled
+     * @param generator Creates a new word set
+     */
+    ChallengePool(int capacity, int lowWaterMark, Supplier<WordSet> generator) {
+        pool = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.lowWaterMark = Math.min(lowWaterMark, capacity - 1);
+        this.generator = generator;
+
+        Thread producer = new Thread(this::produce, "ChallengePool");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * Takes the first acceptable set among the first maxAttempts in the pool,
+     * the sets looked at and not acceptable are put back at the end of the pool
+     * @param acceptable Tells whether a set can be taken
+     * @param maxAttempts The max number of sets looked at
+     * @return The set taken, null if the pool is empty or no acceptable set was found
+     */
+    WordSet poll(Predicate<WordSet> acceptable, int maxAttempts) {
+        WordSet wordSet = null;
+        for (int i = 0; i < maxAttempts && wordSet == null; i++) {
+            wordSet = pool.poll();
+            if (wordSet == null) {
+                starvations.incrementAndGet();
+                break;
+            }
+            if (!acceptable.test(wordSet)) {
+                skipped.incrementAndGet();
+                pool.offer(wordSet); //dropped if the producer filled the pool in the meanwhile
+                wordSet = null;
+            }
+        }
+
+        if (pool.size() <= lowWaterMark) {
+            refillLock.lock();
+            try {
+                refillNeeded.signal();
+            } finally {
+                refillLock.unlock();
+            }
+        }
+        return wordSet;
+    }
+
+    private void produce() {
+        try {
+            while (true) {
+                refillLock.lock();
+                try {
+                    while (pool.size() > lowWaterMark)
+                        refillNeeded.await();
+                } finally {
+                    refillLock.unlock();
+                }
+
+                //one set at a time, so that the translation threads are not taken from the starved challenges
+                while (pool.remainingCapacity() > 0) {
+                    WordSet wordSet = generator.get();
+                    wordSet.translated.join();
+                    if (pool.offer(wordSet))
+                        produced.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * @return The number of sets ready in the pool
+     */
+    int getDepth() {
+        return pool.size();
+    }
+
+    long getStarvations() {
+        return starvations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Challenge pool: " + getDepth() + " ready, " + produced.get() + " produced, " + getStarvations() + " starvations, "
+                + skipped.get() + " skipped for recently seen words";
+    }
+
+    /**
+     * The words of a challenge
+     */
+    static class WordSet {
+        final int[] wordIds; //index of each word in the dictionary
+        final CompletableFuture<Void> translated; //completed once the translations of all the words are known
+
+        WordSet(int[] wordIds, CompletableFuture<Void> translated) {
+            this.wordIds = wordIds;
+            this.translated = translated;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package server;
+
+import commons.WQRegisterInterface;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static server.ChallengeExceptions.*;
+
+/**
+ * Stress driver for ChallengeHandler: plays a large number of simulated matches at the same time,
+ * with the challenge clock running faster than real time so that timeouts and recaps don't take real seconds
+ *
+ * Each player of a match runs on its own task, so the two players compete for the lock of their challenge.
+ * Some of the second players abandon the match after the first word, and their challenge ends by timeout.
+ * At the end it prints the throughput, the time the players spent blocked on monitors and the heap growth
+ *
+ * Arguments (all optional): matches (100000), concurrent matches (1000), player threads (16),
+ * clock speed (100), fraction of abandoned matches (0.1)
+ *
+ * It registers its own users in the user database, so it should be run in an empty directory.
+ * Translations are taken from the offline dictionary unless -Dwq.translations is given. It never falls back to the
+ * public translation API: it stops if the offline dictionary cannot be read, and the web API can only be used
+ * with an endpoint given with -Dwq.translationUrl (es. a StubTranslationServer)
+ */
+public class ChallengeStress {
+
+    private static final int USERS = 1000;
+    private static final String ANSWER = "answer";
+
+    private static final AtomicLong operations = new AtomicLong(0); //calls to ChallengeHandler
+    private static final AtomicLong timeouts = new AtomicLong(0); //answers refused because the match timed out
+    private static final AtomicLong errors = new AtomicLong(0);
+
+    public static void main(String[] args) throws Exception {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int concurrentMatches = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        double clockSpeed = args.length > 3 ? Double.parseDouble(args[3]) : 100;
+        double abandonRate = args.length > 4 ? Double.parseDouble(args[4]) : 0.1;
+
+        //must be set before the server classes are loaded
+        System.setProperty("wq.clockSpeed", String.valueOf(clockSpeed));
+        if (System.getProperty("wq.translations") == null)
+            System.setProperty("wq.translations", Consts.TRANSLATIONS_OFFLINE);
+        //checked before ChallengeHandler is loaded, which would fall back to the public API and load it with the test
+        if (System.getProperty("wq.translations").equals(Consts.TRANSLATIONS_OFFLINE)) {
+            try {
+                new TranslationDictionary(Consts.OFFLINE_TRANSLATIONS_FILENAME);
+            } catch (IOException e) {
+                System.err.println("Offline translations not available, build " + Consts.OFFLINE_TRANSLATIONS_FILENAME
+                        + " with TranslationDictionaryBuilder: " + e);
+                System.exit(1);
+            }
+        } else if (System.getProperty("wq.translationUrl") == null) {
+            System.err.println("The web API can only be used with a local endpoint, es. -Dwq.translationUrl=http://localhost:8090/get"
+                    + " with a StubTranslationServer");
+            System.exit(1);
+        }
+
+        int[] users = new int[USERS];
+        for (int i = 0; i < users.length; i++) {
+            try {
+                UserDB.instance.addUser("stress" + i, "password");
+            } catch (WQRegisterInterface.UserAlreadyRegisteredException ignored) {
+                //left by a previous run
+            }
+            users[i] = UserDB.instance.getUserId("stress" + i);
+        }
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean.isThreadContentionMonitoringSupported())
+            threadMXBean.setThreadContentionMonitoringEnabled(true);
+        Vector<Long> playerThreads = new Vector<>();
+        ExecutorService players = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Player");
+            playerThreads.add(thread.getId());
+            return thread;
+        });
+
+        System.out.println("Playing " + matches + " matches, " + concurrentMatches + " at a time on " + threads
+                + " threads, clock speed " + clockSpeed);
+        ChallengeHandler.instance.toString(); //loads the dictionary before measuring
+        long heapBefore = usedHeap();
+        Semaphore inProgress = new Semaphore(concurrentMatches);
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < matches; i++) {
+            inProgress.acquire();
+            int user1 = users[ThreadLocalRandom.current().nextInt(users.length)];
+            int user2;
+            do {
+                user2 = users[ThreadLocalRandom.current().nextInt(users.length)];
+            } while (user2 == user1);
+
+            int matchId = ChallengeHandler.instance.createChallenge(user1, user2);
+            UserDB.instance.getUser(user1).addMatch(matchId);
+            UserDB.instance.getUser(user2).addMatch(matchId);
+            operations.incrementAndGet();
+
+            boolean abandoned = ThreadLocalRandom.current().nextDouble() < abandonRate;
+            int finalUser2 = user2;
+            players.execute(() -> {
+                play(matchId, user1, false);
+                //released once the match is over, by the other player or by the timeout
+                ChallengeHandler.instance.getRecap(matchId).thenRun(inProgress::release);
+                operations.incrementAndGet();
+            });
+            players.execute(() -> play(matchId, finalUser2, abandoned));
+        }
+        inProgress.acquire(concurrentMatches);
+        long elapsed = System.nanoTime() - startTime;
+
+        long blockedCount = 0;
+        long blockedTime = 0;
+        for (long threadId : playerThreads) {
+            ThreadInfo threadInfo = threadMXBean.getThreadInfo(threadId);
+            if (threadInfo != null) {
+                blockedCount += threadInfo.getBlockedCount();
+                blockedTime += threadInfo.getBlockedTime();
+            }
+        }
+        players.shutdown();
+        players.awaitTermination(1, TimeUnit.MINUTES);
+        long heapAfter = usedHeap();
+
+        double seconds = elapsed / 1e9;
+        System.out.printf("%d matches in %.2f s: %.0f matches/s, %.0f ops/s%n",
+                matches, seconds, matches / seconds, operations.get() / seconds);
+        System.out.println("Timed out answers: " + timeouts.get() + ", errors: " + errors.get());
+        System.out.println("Monitor contention of the players: " + blockedCount + " blocks, "
+                + (threadMXBean.isThreadContentionMonitoringEnabled() ? blockedTime + " ms blocked" : "time not supported"));
+        System.out.println("Heap growth: " + (heapAfter - heapBefore) / 1024 + " KB (" + heapBefore / 1024 + " KB -> " + heapAfter / 1024 + " KB)");
+        System.out.println(ChallengeHandler.instance);
+    }
+
+    /**
+     * Plays a match as the given user, with the same calls done by Handler
+     * @param abandon true if the user leaves after the first word
+     */
+    private static void play(int matchId, int user, boolean abandon) {
+        try {
+            ChallengeHandler.instance.getNextWord(matchId, user);
+            ChallengeHandler.instance.getTime(matchId);
+            operations.addAndGet(2);
+            if (abandon)
+                return;
+            while (true) {
+                ChallengeHandler.instance.checkTranslation(matchId, user, ANSWER);
+                ChallengeHandler.instance.getNextWord(matchId, user);
+                ChallengeHandler.instance.getTime(matchId);
+                operations.addAndGet(3);
+            }
+        } catch (EndOfMatchException e) {
+            operations.incrementAndGet();
+        } catch (GameTimeoutException e) {
+            timeouts.incrementAndGet();
+        } catch (UnknownUsernameException | RuntimeException e) {
+            if (errors.getAndIncrement() == 0)
+                e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return The heap in use after a garbage collection
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
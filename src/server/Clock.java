@@ -0,0 +1,56 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The source of time of the challenges and of their timers
+ *
+ * A clock with speed 1 is the system clock, a faster one makes virtual time run that many times
+ * faster than real time, starting from the current time. Timers sleeping on an accelerated clock
+ * sleep proportionally less, so timeouts and recaps can be exercised without waiting for real seconds
+ */
+class Clock {
+
+    private final double speed; //virtual seconds per real second
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @param speed How faster than real time the clock runs, 1 for the system clock
+     */
+    Clock(double speed) {
+        if (speed <= 0)
+            throw new IllegalArgumentException("Clock speed must be positive: " + speed);
+        this.speed = speed;
+    }
+
+    /**
+     * @return The current time in ms since the epoch, as System.currentTimeMillis()
+     */
+    long millis() {
+        if (speed == 1)
+            return System.currentTimeMillis();
+        return startMillis + (long) ((System.nanoTime() - startNanos) * speed / 1e6);
+    }
+
+    /**
+     * @return A monotonic time in ns, only meaningful to compute elapsed time, as System.nanoTime()
+     */
+    long nanoTime() {
+        if (speed == 1)
+            return System.nanoTime();
+        return startNanos + (long) ((System.nanoTime() - startNanos) * speed);
+    }
+
+    /**
+     * Sleeps for the given virtual time
+     * @param nanos The time to sleep in ns of this clock
+     */
+    void sleep(long nanos) throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep((long) (nanos / speed));
+    }
+
+    double getSpeed() {
+        return speed;
+    }
+}
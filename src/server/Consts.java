@@ -8,13 +8,34 @@ import static commons.Constants.*;
 class Consts {
 
     //implementation constants
-    static final int SERVER_THREADS = 10; //worker threads in server
+    static final int SERVER_THREADS = 10; //worker threads in server, when using the fixed pool
+    static final String EXECUTOR_POOL = "pool", EXECUTOR_VIRTUAL = "virtual"; //modes to run the requests
+    static final String EXECUTOR_MODE = System.getProperty("wq.executor", EXECUTOR_POOL);
+    static final int REACTOR_WORKERS = Integer.getInteger("wq.reactorWorkers", Runtime.getRuntime().availableProcessors()); //selector event loops behind the acceptor
+    static final int MAX_PIPELINED_REQUESTS = 64; //framed requests queued on a connection before it stops being read
+    static final int MAX_WRITE_BATCH = 16; //max responses sent with a single gathering write
+    static final int[] BUFFER_POOL_SIZES = {64, 256, INT_SIZE + MAX_MESSAGE_LENGTH}; //capacity of the pooled direct buffers
+    static final int BUFFER_POOL_RETAINED = 4096; //max free buffers kept for each size
     static final String DICTIONARY_FILENAME = "dictionary";
-    static final String USER_TABLE_FILENAME = "user_table.json";
-    static final String USER_TABLE_FILENAME_TMP = "user_table_tmp.json";
-    static final String USER_GRAPH_FILENAME_TMP = "user_graph_tmp.json";
+    static final String TRANSLATIONS_HTTP = "http", TRANSLATIONS_OFFLINE = "offline"; //sources of the translations
+    static final String TRANSLATION_PROVIDER = System.getProperty("wq.translations", TRANSLATIONS_HTTP);
+    static final String OFFLINE_TRANSLATIONS_FILENAME = "translations.bin"; //built by TranslationDictionaryBuilder
+    static final int TRANSLATION_THREADS = 8; //concurrent requests to the translation web API
+    static final String TRANSLATION_CACHE_FILENAME = "translation_cache.tsv";
+    //the cache file holds the translations of the public API only, those of another endpoint (es. a stub) are not stored
+    static final boolean TRANSLATION_CACHE_PERSISTENT = System.getProperty("wq.translationUrl") == null;
+    static final int TRANSLATION_CACHE_SIZE = Integer.getInteger("wq.translationCacheSize", 50000); //max words kept in memory
+    static final String USER_TABLE_SNAPSHOT_FILENAME = "user_table.bin";
+    static final String USER_GRAPH_SNAPSHOT_FILENAME = "user_graph.bin";
+    static final String USER_TABLE_FILENAME = "user_table.json"; //format of the previous versions, read if there is no binary snapshot
     static final String USER_GRAPH_FILENAME = "user_graph.json";
-    static final long DB_SAVE_INTERVAL = 5000; //ms, the interval in which the server saves the user database
+    static final long DB_SAVE_INTERVAL = 5000; //ms, the interval in which the server checks if a snapshot of the user database is due
+    static final long DB_SNAPSHOT_INTERVAL = Long.getLong("wq.snapshotInterval", 60000); //ms between snapshots of the user database
+    static final String USER_LOG_FILENAME = "user_db.wal"; //segments are user_db.wal.0, user_db.wal.1, ...
+    static final long USER_LOG_SNAPSHOT_SIZE = Long.getLong("wq.walSnapshotSize", 16 * 1024 * 1024); //bytes of log that trigger an early snapshot
+    static final String FSYNC_ALWAYS = "always", FSYNC_INTERVAL = "interval", FSYNC_NEVER = "never"; //when the log is forced to disk
+    static final String USER_LOG_FSYNC = System.getProperty("wq.walFsync", FSYNC_INTERVAL);
+    static final long USER_LOG_FSYNC_INTERVAL = Long.getLong("wq.walFsyncInterval", 100); //ms, with FSYNC_INTERVAL
 
     //game constants
     static final int MAX_TRANSLATIONS_PER_WORD = 5; //The max number of accepted translations for a given word
@@ -27,6 +48,16 @@ class Consts {
     private static final int CHALLENGE_TIME_PER_WORD = 5000; //in ms
     static final long CHALLENGE_TIMEOUT = CHALLENGE_WORDS_TO_MATCH * CHALLENGE_TIME_PER_WORD;
     static final long CHALLENGE_REQUEST_TIMEOUT = 5000; //time to wait before a challenge request expired
+    static final long CHALLENGE_ARCHIVE_DELAY = Long.getLong("wq.challengeGracePeriod", 60000); //ms a finished challenge is kept before being archived
+    static final int CHALLENGE_ARCHIVE_SIZE = Integer.getInteger("wq.challengeArchiveSize", 100000); //max archived challenges
+    static final int CHALLENGE_POOL_SIZE = Integer.getInteger("wq.challengePoolSize", 32); //word sets translated in advance, 0 to disable
+    static final int CHALLENGE_POOL_LOW_WATER_MARK = Integer.getInteger("wq.challengePoolLowWater", 8); //the pool is refilled when down to this size
+    static final int CHALLENGE_POOL_MAX_SKIPS = 4; //pooled sets looked at before generating one without recently seen words
+    static final int WORD_SAMPLING_ATTEMPTS = 16; //words drawn before accepting one seen recently
+    static final int RECENT_WORDS_PER_USER = Integer.getInteger("wq.recentWords", 60); //words remembered to avoid repeating them to a user
+    static final double CLOCK_SPEED = Double.parseDouble(System.getProperty("wq.clockSpeed", "1")); //speed of the challenge time, > 1 only for stress tests
+    static final long TIMER_TICK = 100; //ms, precision of the challenge deadlines
+    static final int TIMER_WHEEL_SIZE = 512; //buckets of the timing wheel, a turn lasts TIMER_TICK * TIMER_WHEEL_SIZE
 
     //error messages from server
     static final String RESPONSE_USER_NOT_FOUND = "404 User not found";
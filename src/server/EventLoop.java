@@ -0,0 +1,110 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A worker reactor: owns a selector and runs the handlers of the connections
+ * that the acceptor assigned to it
+ *
+ * Every interaction with the selector from other threads is done by queueing a task
+ * that the loop will run on its own thread after waking up
+ */
+class EventLoop extends Thread implements AutoCloseable {
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>(); //tasks submitted by other threads
+    private final AtomicInteger connections = new AtomicInteger(0); //connections currently served by this loop
+    private final ByteBuffer[] writeBatch = new ByteBuffer[Consts.MAX_WRITE_BATCH]; //scratch array for gathering writes
+
+    EventLoop(int index) throws IOException {
+        super("EventLoop-" + index);
+        selector = Selector.open();
+    }
+
+    /**
+     * Hands over a newly accepted connection to this loop
+     * @param channel The accepted socket channel
+     */
+    void register(SocketChannel channel) {
+        connections.incrementAndGet();
+        execute(() -> {
+            try {
+                new Handler(this, channel);
+            } catch (IOException e) {
+                e.printStackTrace();
+                connections.decrementAndGet();
+                try {
+                    channel.close(); //no handler owns it, it would leak its descriptor
+                } catch (IOException closeException) {
+                    closeException.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues a task to be run by the loop thread and wakes up the selector
+     */
+    void execute(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    /**
+     * @return An array to collect the buffers of a gathering write, to be used only by the loop thread
+     */
+    ByteBuffer[] getWriteBatch() {
+        return writeBatch;
+    }
+
+    /**
+     * @return The number of connections currently handled by the loop
+     */
+    int getConnections() {
+        return connections.get();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!interrupted()) {
+                selector.select();
+
+                Runnable task;
+                while ((task = pendingTasks.poll()) != null)
+                    task.run();
+
+                for (SelectionKey selectedKey : selector.selectedKeys()) {
+                    ((Runnable) selectedKey.attachment()).run();
+                    if (!selectedKey.isValid())
+                        connections.decrementAndGet();
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.interrupt();
+        selector.wakeup();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); //the caller is being interrupted, it will find out
+        }
+        selector.close();
+    }
+}
@@ -0,0 +1,226 @@
+package server;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static commons.Constants.*;
+
+/**
+ * Compares the execution modes of the requests (Consts.EXECUTOR_MODE): the fixed pool of worker threads
+ * and a virtual thread per request, under the same mixed workload
+ *
+ * Each mode runs in its own process, with its own database in a new temporary directory: the TCP server is started
+ * on a free port with the translations taken from a StubTranslationServer, and every client repeats on its own
+ * connection a challenge (ready and three answers, which wait for the translations still in flight) followed by
+ * score, ranking and friend list requests, which never block. It prints the requests per second and the latency
+ * percentiles of all the requests and of the non blocking ones alone.
+ * Virtual threads need java 21, older versions run the fixed pool in both modes
+ *
+ * Arguments (all optional): clients (200), seconds per mode (10), round trip time of the translations in ms (100),
+ * challenge dictionary ('long_dictionary', so that the translations keep missing as on a cold server)
+ */
+public class ExecutorBenchmark {
+
+    private static final String RUN = "run";
+    private static final String PASSWORD = "password";
+    private static final String ANSWER = "answer";
+
+    private static final AtomicLong challengeRequests = new AtomicLong(0);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(RUN)) {
+            run(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Long.parseLong(args[3]));
+            return;
+        }
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long roundTripTime = args.length > 2 ? Long.parseLong(args[2]) : 100;
+        Path dictionary = Paths.get(args.length > 3 ? args[3] : "long_dictionary").toAbsolutePath();
+
+        System.out.println(clients + " clients, " + seconds + " s per mode, " + roundTripTime + " ms of round trip time "
+                + "for the translations, words from " + dictionary.getFileName() + ", java " + Runtime.version());
+        if (Runtime.version().feature() < 21)
+            System.out.println("Virtual threads need java 21, the virtual mode will run the fixed pool");
+
+        for (String mode : new String[]{Consts.EXECUTOR_POOL, Consts.EXECUTOR_VIRTUAL}) {
+            Path directory = Files.createTempDirectory("wq-executor-" + mode);
+            Files.copy(dictionary, directory.resolve(Consts.DICTIONARY_FILENAME), StandardCopyOption.REPLACE_EXISTING);
+            Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-Dwq.executor=" + mode, "-cp", System.getProperty("java.class.path"), ExecutorBenchmark.class.getName(),
+                    RUN, String.valueOf(clients), String.valueOf(seconds), String.valueOf(roundTripTime))
+                    .directory(directory.toFile()).inheritIO().start();
+            if (process.waitFor() != 0)
+                System.out.println("  " + mode + ": failed, the database is left in " + directory);
+        }
+    }
+
+    /**
+     * Runs the server and the clients in this process, with the mode selected by wq.executor
+     */
+    private static void run(int clients, int seconds, long roundTripTime) throws Exception {
+        //must be set before the translation URL is read, it also keeps the stub translations out of the cache file
+        HttpServer stub = StubTranslationServer.start(0, roundTripTime, false);
+        System.setProperty("wq.translationUrl", "http://localhost:" + stub.getAddress().getPort() + "/get");
+        System.setProperty("wq.translations", Consts.TRANSLATIONS_HTTP);
+
+        int[] players = new int[clients];
+        int[] opponents = new int[clients]; //never play, their challenges end by timeout
+        InetAddress address = InetAddress.getLoopbackAddress();
+        for (int i = 0; i < clients; i++) {
+            UserDB.instance.addUser("player" + i, PASSWORD);
+            UserDB.instance.addUser("opponent" + i, PASSWORD);
+            players[i] = UserDB.instance.getUserId("player" + i);
+            opponents[i] = UserDB.instance.getUserId("opponent" + i);
+            UserDB.instance.logUser("player" + i, PASSWORD, address, i);
+            UserDB.instance.addFriendship("player" + i, "opponent" + i, address, i);
+            UserDB.instance.logoutUser("player" + i, address, i);
+        }
+        ChallengeHandler.instance.toString(); //loads the dictionary before measuring
+
+        Reactor reactor = new Reactor(0);
+        reactor.start();
+        long endTime = System.nanoTime() + seconds * 1000000000L;
+        Client[] clientThreads = new Client[clients];
+        for (int i = 0; i < clients; i++) {
+            clientThreads[i] = new Client(reactor.getPort(), "player" + i, players[i], opponents[i], endTime);
+            clientThreads[i].start();
+        }
+        long requests = 0;
+        int allLatencies = 0, fastLatencies = 0;
+        for (Client client : clientThreads) {
+            client.join();
+            requests += client.requests;
+            allLatencies += client.latencyCount;
+            fastLatencies += client.fastLatencyCount;
+        }
+
+        long[] latencies = new long[allLatencies];
+        long[] fast = new long[fastLatencies];
+        allLatencies = 0;
+        fastLatencies = 0;
+        for (Client client : clientThreads) {
+            System.arraycopy(client.latencies, 0, latencies, allLatencies, client.latencyCount);
+            allLatencies += client.latencyCount;
+            System.arraycopy(client.fastLatencies, 0, fast, fastLatencies, client.fastLatencyCount);
+            fastLatencies += client.fastLatencyCount;
+        }
+        Arrays.sort(latencies);
+        Arrays.sort(fast);
+        boolean failed = false;
+        for (Client client : clientThreads)
+            failed |= client.failed;
+
+        System.out.printf("  %-8s %.0f requests/s (%d challenge requests); all: p50 %.1f ms, p99 %.1f ms; "
+                        + "non blocking: p50 %.1f ms, p99 %.1f ms%n",
+                Consts.EXECUTOR_MODE + ":", requests / (double) seconds, challengeRequests.get(),
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(fast, 0.5), percentile(fast, 0.99));
+        //the server is not closed, the requests still blocked would delay the end of the process
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * @return The given percentile of the sorted latencies, in ms
+     */
+    private static double percentile(long[] sortedLatencies, double percentile) {
+        if (sortedLatencies.length == 0)
+            return 0;
+        return sortedLatencies[Math.min(sortedLatencies.length - 1, (int) (sortedLatencies.length * percentile))] / 1e6;
+    }
+
+    /**
+     * A client with its own connection, sending a request at a time until the end of the run
+     */
+    private static class Client extends Thread {
+        private final int port;
+        private final String username;
+        private final int userId;
+        private final int opponentId;
+        private final long endTime; //System.nanoTime() at which the client stops
+
+        private long requests = 0;
+        private long[] latencies = new long[1024]; //ns, of every request
+        private int latencyCount = 0;
+        private long[] fastLatencies = new long[1024]; //ns, of the requests which never wait for a translation
+        private int fastLatencyCount = 0;
+        private boolean failed = false;
+
+        private DataInputStream input;
+        private DataOutputStream output;
+
+        Client(int port, String username, int userId, int opponentId, long endTime) {
+            super("Client");
+            this.port = port;
+            this.username = username;
+            this.userId = userId;
+            this.opponentId = opponentId;
+            this.endTime = endTime;
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                socket.setTcpNoDelay(true);
+                input = new DataInputStream(socket.getInputStream());
+                output = new DataOutputStream(socket.getOutputStream());
+                request(REQUEST_LOGIN + " " + username + " " + PASSWORD, false);
+
+                while (System.nanoTime() < endTime) {
+                    //the challenge is created as the UDP server does once it is accepted
+                    int matchId = ChallengeHandler.instance.createChallenge(userId, opponentId);
+                    UserDB.instance.getUser(userId).addMatch(matchId);
+                    request(REQUEST_READY_FOR_CHALLENGE + " " + matchId + " " + username, false);
+                    for (int i = 0; i < CHALLENGE_WORDS_TO_MATCH && System.nanoTime() < endTime; i++)
+                        request(REQUEST_NEXT_WORD + " " + matchId + " " + username + " " + ANSWER, false);
+
+                    for (int i = 0; i < 2 && System.nanoTime() < endTime; i++) {
+                        request(REQUEST_SCORE + " " + username, true);
+                        request(REQUEST_RANKINGS + " " + username, true);
+                        request(REQUEST_FRIEND_LIST + " " + username, true);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+        }
+
+        /**
+         * Sends a framed request and waits for its response
+         * @param fast true if the request never waits for a translation
+         */
+        private void request(String request, boolean fast) throws IOException {
+            byte[] bytes = request.getBytes(StandardCharsets.UTF_8);
+            long startTime = System.nanoTime();
+            output.writeInt(bytes.length);
+            output.write(bytes);
+            output.flush();
+            byte[] response = new byte[input.readInt()];
+            input.readFully(response);
+            long latency = System.nanoTime() - startTime;
+
+            requests++;
+            if (latencyCount == latencies.length)
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            latencies[latencyCount++] = latency;
+            if (fast) {
+                if (fastLatencyCount == fastLatencies.length)
+                    fastLatencies = Arrays.copyOf(fastLatencies, fastLatencies.length * 2);
+                fastLatencies[fastLatencyCount++] = latency;
+            } else {
+                challengeRequests.incrementAndGet();
+            }
+        }
+    }
+}
@@ -7,181 +7,390 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutorService;
 
 import static commons.Constants.*;
 import static server.UserDBExceptions.*;
 import static server.ChallengeExceptions.*;
 
+/**
+ * Handles a single TCP connection inside an event loop
+ *
+ * Requests can be sent either as plain text, one per read, or framed with an INT_SIZE length header,
+ * the same way the responses are sent. The mode is detected from the first byte the client sends:
+ * a header always starts with a zero byte while a textual request never does.
+ * With framed requests the client can pipeline them, they are processed one at a time
+ * and their responses are sent back in the same order
+ *
+ * All the buffers used for requests and responses are borrowed from BufferPool and given
+ * back as soon as they have been processed or sent
+ */
 final class Handler implements Runnable {
+    private final EventLoop eventLoop;
     private final SocketChannel socket;
     private final SelectionKey selectionKey;
-    private final AtomicBoolean processed = new AtomicBoolean(false);
-    private final ByteBuffer input = ByteBuffer.allocate(MAX_MESSAGE_LENGTH);
-    private final ByteBuffer preOutput = ByteBuffer.allocate(INT_SIZE);
-    private final ByteBuffer output = ByteBuffer.allocate(MAX_MESSAGE_LENGTH);
-    private static final ThreadPoolExecutor threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(Consts.SERVER_THREADS);
-    private static final int IO_OPERATION = 0, PROCESSING = 2;
-    private int state = IO_OPERATION;
+    private final InetAddress clientAddress; //address of the client, resolved once per connection
+    private final int clientPort;
+    private ByteBuffer input = null; //borrowed from the pool only while a request is being read
+    private final ArrayDeque<ByteBuffer> requests = new ArrayDeque<>(); //requests read but not yet processed
+    private final ArrayDeque<ByteBuffer> responses = new ArrayDeque<>(); //responses waiting to be sent, in order
+    private static final ExecutorService threadPool = newRequestExecutor();
+    private static final HashMap<String, ByteBuffer> fixedResponses = encodeFixedResponses(); //shared, read only
+    private static final int UNKNOWN = 0, PLAIN = 1, FRAMED = 2;
+    private int framing = UNKNOWN; //framing used by the client, only accessed by the event loop thread
+    private boolean processing = false; //true while a request is in the thread pool, only accessed by the event loop thread
+    //user logged in with this connection, requests are processed one at a time so they need no synchronization
+    private int sessionUserId = -1;
+    private byte[] sessionUsername = null; //encoded, to recognize it in the requests without decoding them
+
+    /**
+     * Encodes once, with their size header, the responses that never change
+     * @return A map from each response to its read only encoding
+     */
+    private static HashMap<String, ByteBuffer> encodeFixedResponses() {
+        String[] responses = {RESPONSE_OK, RESPONSE_CHALLENGE_TIMEOUT + "\n", Consts.RESPONSE_USER_NOT_FOUND,
+                Consts.RESPONSE_WRONG_PASSWORD, Consts.RESPONSE_ALREADY_LOGGED, Consts.RESPONSE_NOT_LOGGED,
+                Consts.RESPONSE_ALREADY_FRIENDS, Consts.RESPONSE_NOT_FRIENDS, Consts.RESPONSE_UNKNOWN_REQUEST,
+                Consts.RESPONSE_ILLEGAL_REQUEST, Consts.RESPONSE_SAME_USER, Consts.RESPONSE_UNKNOWN_USERNAME};
+        HashMap<String, ByteBuffer> encoded = new HashMap<>();
+        for (String response : responses) {
+            byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(INT_SIZE + responseBytes.length);
+            buffer.putInt(responseBytes.length);
+            buffer.put(responseBytes);
+            buffer.flip();
+            encoded.put(response, buffer.asReadOnlyBuffer());
+        }
+        return encoded;
+    }
+
+    /**
+     * Creates the executor of the requests as selected by Consts.EXECUTOR_MODE:
+     * a virtual thread per request, when the JVM supports them (java 21+), or a fixed pool of threads.
+     * Virtual threads don't cap the number of requests which can be blocked at the same time
+     * (es. waiting for a translation), the fixed pool is kept as a fallback
+     */
+    private static ExecutorService newRequestExecutor() {
+        if(Consts.EXECUTOR_MODE.equals(Consts.EXECUTOR_VIRTUAL)) {
+            try {
+                //looked up at runtime as the server is still built for older versions of java
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads are not supported by this JVM, using a fixed thread pool");
+            }
+        }
+        return Executors.newFixedThreadPool(Consts.SERVER_THREADS);
+    }
 
     static void close(){
         if(!threadPool.isTerminated() && !threadPool.isShutdown())
             threadPool.shutdown();
     }
 
-    Handler(Selector sel, SocketChannel c) throws IOException {
+    Handler(EventLoop eventLoop, SocketChannel c) throws IOException {
+        this.eventLoop = eventLoop;
         socket = c;
         c.configureBlocking(false);
-        // Optionally try first read now
-        selectionKey = socket.register(sel, 0);
+        InetSocketAddress remoteAddress = (InetSocketAddress) c.getRemoteAddress();
+        clientAddress = remoteAddress.getAddress();
+        clientPort = remoteAddress.getPort();
+        selectionKey = socket.register(eventLoop.getSelector(), SelectionKey.OP_READ);
         selectionKey.attach(this);
-        selectionKey.interestOps(SelectionKey.OP_READ);
-        sel.wakeup();
     }
 
     @Override
     public void run() {
         try {
-            if(state == IO_OPERATION) {
-                if (selectionKey.isValid() && selectionKey.isWritable())
-                    send();
-                else if (selectionKey.isValid() && selectionKey.isReadable())
-                    read();
-            }else if(state == PROCESSING && processed.get()){
-                state = IO_OPERATION;
-            }
+            if (selectionKey.isValid() && selectionKey.isWritable())
+                send();
+            if (selectionKey.isValid() && selectionKey.isReadable())
+                read();
         } catch (IOException e) {
             e.printStackTrace();
+            disconnect();
         }
     }
 
 
     private void read() throws IOException {
+        if(input == null)
+            input = BufferPool.instance.acquire(INT_SIZE + MAX_MESSAGE_LENGTH);
+
         int read = socket.read(input);
-        if(read == -1)
-            selectionKey.cancel();
-        else if(read == 0) {
-            //nothing to read
-            selectionKey.interestOps(SelectionKey.OP_WRITE);
-        }else{
-            selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        if(read == -1) {
+            disconnect();
+            return;
+        }
+        if(read == 0) {
+            releaseInput();
+            return;
+        }
+
+        input.flip();
+        if(framing == UNKNOWN)
+            framing = input.get(0) == 0 ? FRAMED : PLAIN;
+
+        if(framing == PLAIN) {
+            //the whole read is a single request
+            requests.add(copyOf(input, input.remaining()));
+        } else {
+            while (input.remaining() >= INT_SIZE) {
+                int length = input.getInt(input.position());
+                if(length < 0 || length > MAX_MESSAGE_LENGTH) {
+                    System.err.println("TCP, frame of illegal length: " + length);
+                    disconnect();
+                    return;
+                }
+                if(input.remaining() < INT_SIZE + length)
+                    break; //the rest of the frame has still to arrive
+                input.position(input.position() + INT_SIZE);
+                requests.add(copyOf(input, length));
+            }
         }
+        input.compact();
+        releaseInput();
+
+        dispatch();
+        updateInterest();
     }
 
-    private void send() throws IOException {
+    /**
+     * Gives back the input buffer if it doesn't hold the beginning of a request
+     */
+    private void releaseInput() {
+        if(input != null && input.position() == 0) {
+            BufferPool.instance.release(input);
+            input = null;
+        }
+    }
+
+    /**
+     * @return A pooled buffer containing the next length bytes of source
+     */
+    private static ByteBuffer copyOf(ByteBuffer source, int length) {
+        ByteBuffer copy = BufferPool.instance.acquire(length);
+        ByteBuffer slice = source.slice();
+        slice.limit(length);
+        copy.put(slice);
+        copy.flip();
+        source.position(source.position() + length);
+        return copy;
+    }
+
+    /**
+     * Submits the next request to the thread pool unless one is already being processed
+     */
+    private void dispatch() {
+        if(!processing && !requests.isEmpty()) {
+            processing = true;
+            ByteBuffer request = requests.poll();
+            threadPool.execute(() -> process(request));
+        }
+    }
+
+    /**
+     * Sets the interest of the key depending on the state of the connection.
+     * A plain connection is parked with no interest while its request is processed,
+     * a framed one keeps reading until too many requests are queued
+     */
+    private void updateInterest() {
+        if(!selectionKey.isValid())
+            return;
+
+        int interestOps = 0;
+        if(!responses.isEmpty())
+            interestOps |= SelectionKey.OP_WRITE;
+        if(framing == PLAIN) {
+            if(!processing && requests.isEmpty() && responses.isEmpty())
+                interestOps |= SelectionKey.OP_READ;
+        } else if(requests.size() < Consts.MAX_PIPELINED_REQUESTS && (input == null || input.hasRemaining())) {
+            interestOps |= SelectionKey.OP_READ;
+        }
+        selectionKey.interestOps(interestOps);
+    }
 
-        if(!processed.get()) {
-            state = PROCESSING;
-            threadPool.execute(this::process);
-        } else if(preOutput.hasRemaining()){
-            socket.write(preOutput);
-            selectionKey.interestOps(SelectionKey.OP_WRITE);
+    /**
+     * Called by the worker thread once the response is ready, the response is queued
+     * to the event loop which is woken up to send it
+     * @param response The response to be sent
+     */
+    private void processed(String response) {
+        ByteBuffer output = fixedResponses.get(response);
+        if(output != null) {
+            output = output.duplicate(); //own position over the shared content
         } else {
-            socket.write(output);
-            if (!output.hasRemaining()) {
-                selectionKey.interestOps(SelectionKey.OP_READ);
-                output.clear();
-                input.clear();
-                preOutput.clear();
-                processed.set(false);
+            byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
+
+            //sending first the size of the buffer to be allocated, in the same buffer
+            output = BufferPool.instance.acquire(INT_SIZE + responseBytes.length);
+            output.putInt(responseBytes.length);
+            output.put(responseBytes);
+            output.flip();
+        }
+
+        ByteBuffer finalOutput = output;
+        eventLoop.execute(() -> {
+            if(!selectionKey.isValid()) {
+                //connection was closed in the meantime
+                BufferPool.instance.release(finalOutput);
+                return;
+            }
+            responses.add(finalOutput);
+            processing = false;
+            dispatch();
+            updateInterest();
+        });
+    }
+
+    /**
+     * Writes all the queued responses with as few gathering writes as possible
+     */
+    private void send() throws IOException {
+        ByteBuffer[] batch = eventLoop.getWriteBatch();
+        while (!responses.isEmpty()) {
+            int count = 0;
+            for(ByteBuffer output: responses) {
+                if(count == batch.length)
+                    break;
+                batch[count++] = output;
             }
+            socket.write(batch, 0, count);
+            boolean batchWritten = !batch[count - 1].hasRemaining();
+            Arrays.fill(batch, 0, count, null);
+
+            while (!responses.isEmpty() && !responses.peek().hasRemaining())
+                BufferPool.instance.release(responses.poll());
+            if(!batchWritten)
+                break; //socket buffer is full, wait to be writable again
         }
+        updateInterest();
     }
 
-    private void process(){
-        input.flip();
-        String message = new String(input.array(), input.arrayOffset(), input.remaining(), StandardCharsets.UTF_8);
-        String[] messageFragments = message.split(" ");
+    private void disconnect() {
+        selectionKey.cancel();
+        if(input != null)
+            BufferPool.instance.release(input);
+        input = null;
+        for(ByteBuffer buffer: requests)
+            BufferPool.instance.release(buffer);
+        requests.clear();
+        for(ByteBuffer buffer: responses)
+            BufferPool.instance.release(buffer);
+        responses.clear();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
+    /**
+     * Reads the username of a challenge request and resolves it to its user id,
+     * the user logged with this connection is recognized without decoding the name
+     * @return The id of the user, -1 if there is no such user
+     */
+    private int nextUserId(ByteBuffer request) {
+        if (sessionUserId != -1 && RequestParser.nextTokenEquals(request, sessionUsername))
+            return sessionUserId;
+        return UserDB.instance.getUserId(RequestParser.nextString(request));
+    }
+
+    private void process(ByteBuffer request){
         //variables to be used inside switch statement
         String response = "";
         int matchId = 0;
-        String username;
+        String username = null;
+        int userId = -1;
 
         try {
-            InetAddress clientAddress = ((InetSocketAddress) ((SocketChannel) selectionKey.channel()).getRemoteAddress()).getAddress();
-            int clientPort = ((InetSocketAddress) ((SocketChannel) selectionKey.channel()).getRemoteAddress()).getPort();
-
-            switch (messageFragments[0]) {
-                case REQUEST_LOGIN:
-                    if (messageFragments.length > 3)
-                        UserDB.instance.logUser(messageFragments[1], messageFragments[2],
+            int verb = RequestParser.nextVerb(request, RequestParser.TCP_VERBS);
+            switch (verb) {
+                case RequestParser.LOGIN:
+                    username = RequestParser.nextString(request);
+                    String password = RequestParser.nextString(request);
+                    if (RequestParser.hasNext(request))
+                        sessionUserId = UserDB.instance.logUser(username, password,
                                 clientAddress,
                                 clientPort,
-                                Integer.parseInt(messageFragments[3]));
+                                RequestParser.nextInt(request));
                     else
-                        UserDB.instance.logUser(messageFragments[1], messageFragments[2],
+                        sessionUserId = UserDB.instance.logUser(username, password,
                                 clientAddress,
                                 clientPort);
+                    sessionUsername = username.getBytes(StandardCharsets.UTF_8);
 
                     response = RESPONSE_OK;
                     break;
 
-                case REQUEST_LOGOUT:
-                    UserDB.instance.logoutUser(messageFragments[1], clientAddress, clientPort);
+                case RequestParser.LOGOUT:
+                    UserDB.instance.logoutUser(RequestParser.nextString(request), clientAddress, clientPort);
+                    sessionUserId = -1; //only the user logged with this connection can be logged out
+                    sessionUsername = null;
                     response = RESPONSE_OK;
                     break;
 
-                case REQUEST_ADD_FRIEND:
-                    UserDB.instance.addFriendship(messageFragments[1], messageFragments[2], clientAddress, clientPort);
+                case RequestParser.ADD_FRIEND:
+                    username = RequestParser.nextString(request);
+                    UserDB.instance.addFriendship(username, RequestParser.nextString(request), clientAddress, clientPort);
                     response = RESPONSE_OK;
 
                     break;
 
-                case REQUEST_FRIEND_LIST:
-                    response = UserDB.instance.getFriends(messageFragments[1], clientAddress, clientPort);
+                case RequestParser.FRIEND_LIST:
+                    response = UserDB.instance.getFriends(RequestParser.nextString(request), clientAddress, clientPort);
                     break;
 
-                case REQUEST_CHALLENGE:
+                case RequestParser.CHALLENGE:
                     response = Consts.RESPONSE_ILLEGAL_REQUEST; //no challenge request allowed via TCP
                     break;
 
-                case REQUEST_SCORE:
-                    response = String.valueOf(UserDB.instance.getScore(messageFragments[1], clientAddress, clientPort));
+                case RequestParser.SCORE:
+                    response = String.valueOf(UserDB.instance.getScore(RequestParser.nextString(request), clientAddress, clientPort));
                     break;
 
-                case REQUEST_RANKINGS:
-                    response = UserDB.instance.getRanking(messageFragments[1], clientAddress, clientPort);
+                case RequestParser.RANKINGS:
+                    response = UserDB.instance.getRanking(RequestParser.nextString(request), clientAddress, clientPort);
                     break;
 
                 /*
                  * User already received first word so he sends the translation of the last word
                  * and wants the next word
                  */
-                case REQUEST_NEXT_WORD:
+                case RequestParser.NEXT_WORD:
                     //Check correctness of translated word, then send new word
-                    matchId = Integer.parseInt(messageFragments[1]);
-                    username = messageFragments[2];
-                    String translatedWord = messageFragments[3];
-                    String wellTranslatedWord = ChallengeHandler.instance.checkTranslation(matchId, username, translatedWord);
-                    boolean outcome = wellTranslatedWord != null && wellTranslatedWord.toLowerCase().equals(translatedWord.toLowerCase());
-                    response = Consts.getResponseTranslationServer(matchId, translatedWord, wellTranslatedWord, outcome);
+                    matchId = RequestParser.nextInt(request);
+                    userId = nextUserId(request);
+                    String translatedWord = RequestParser.nextString(request);
+                    response = ChallengeHandler.instance.checkTranslation(matchId, userId, translatedWord);
 
                     response += "\n";
 
-                case REQUEST_READY_FOR_CHALLENGE:
+                case RequestParser.READY_FOR_CHALLENGE:
                     //client is ready for a match
-                    matchId = Integer.parseInt(messageFragments[1]);
-                    username = messageFragments[2];
-                    String nextWord = ChallengeHandler.instance.getNextWord(matchId, username);
+                    if (verb == RequestParser.READY_FOR_CHALLENGE) {
+                        matchId = RequestParser.nextInt(request);
+                        userId = nextUserId(request);
+                    }
+                    String nextWord = ChallengeHandler.instance.getNextWord(matchId, userId);
                     response += Consts.getResponseNextWord(matchId, nextWord);
 
                     response += "\n" + Consts.getResponseTimeRemaining(ChallengeHandler.instance.getTime(matchId));
                     break;
-                case REQUEST_CHALLENGE_RECAP:
-                    matchId = Integer.parseInt(messageFragments[1]);
-                    output.clear();
-                    threadPool.execute(new RecapTask(matchId, output, preOutput, processed, threadPool));
+                case RequestParser.CHALLENGE_RECAP:
+                    matchId = RequestParser.nextInt(request);
+                    //the response is sent once the challenge is over
+                    ChallengeHandler.instance.getRecap(matchId).thenAccept(this::processed);
                     return;
 
 
                 default:
-                    System.err.println("TCP, unknown command: " + messageFragments[0]);
+                    System.err.println("TCP, unknown command: " + RequestParser.toString(request));
                     response = Consts.RESPONSE_UNKNOWN_REQUEST;
                     break;
             }
@@ -205,22 +414,18 @@ final class Handler implements Runnable {
                 response = RESPONSE_CHALLENGE_TIMEOUT + "\n";
         } catch (EndOfMatchException e) {
             response += RESPONSE_WAITING_OTHER_USER;
-        } catch (IndexOutOfBoundsException e){
+        } catch (IndexOutOfBoundsException | NumberFormatException e){
             //client sent a message without proper format
-            response = Consts.RESPONSE_WRONG_FORMAT + ": " + message;
-        } catch (IOException e) {
+            response = Consts.RESPONSE_WRONG_FORMAT + ": " + RequestParser.toString(request);
+        } catch (RuntimeException e){
+            //last resort, the request must be answered or the following ones of the connection are never processed
             e.printStackTrace();
+            response = Consts.RESPONSE_UNKNOWN_REQUEST;
+        } finally {
+            BufferPool.instance.release(request);
         }
 
-        output.clear();
-        output.put(response.getBytes(StandardCharsets.UTF_8));
-        output.flip();
-
-        //sending first the size of the buffer to be allocated
-        preOutput.putInt(output.remaining());
-        preOutput.flip();
-        processed.set(true);
-
+        processed(response);
     }
 
 }
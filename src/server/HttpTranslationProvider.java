@@ -0,0 +1,83 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static commons.Constants.*;
+
+/**
+ * Retrieves the translations from the MyMemory web API
+ *
+ * The blocking HTTP requests are done by a dedicated pool of daemon threads
+ */
+class HttpTranslationProvider implements TranslationProvider {
+
+    private final ExecutorService threadPool;
+
+    /**
+     * @param threads The number of requests that can be done at the same time
+     */
+    HttpTranslationProvider(int threads) {
+        threadPool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "HttpTranslation");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public CompletableFuture<String[]> translate(String word) {
+        return CompletableFuture.supplyAsync(() -> getTranslation(word), threadPool);
+    }
+
+    /**
+     * Retrieves some correct translation of the given word
+     * @param originalWord The original word to be translated
+     * @return An array of correct translations
+     */
+    private static String[] getTranslation(String originalWord) {
+        try {
+            URL url = new URL(getTranslationURL(originalWord));
+            try(var inputStream = new BufferedReader(new InputStreamReader(url.openStream()))){
+                StringBuilder stringBuilder = new StringBuilder();
+                Gson gson = new Gson();
+                String line;
+
+                while((line = inputStream.readLine()) != null){
+                    stringBuilder.append(line);
+                }
+                JsonObject jsonObject = gson.fromJson(stringBuilder.toString(), JsonObject.class);
+
+                String[] translations = new String[Consts.MAX_TRANSLATIONS_PER_WORD];
+                translations[0] = jsonObject.get("responseData").getAsJsonObject().get("translatedText").getAsString();
+                JsonArray jsonArray = jsonObject.getAsJsonArray("matches");
+                int i = 0;
+                while (i < translations.length - 1 && i < jsonArray.size()){
+                    translations[i] = jsonArray.get(i).getAsJsonObject().get("translation").getAsString();
+                    i++;
+                }
+                return translations;
+
+            }catch (IOException e){
+                e.printStackTrace();
+            }catch (RuntimeException e){
+                //unexpected response (es. malformed json or missing fields), the future must not fail
+                e.printStackTrace();
+            }
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+        }
+
+        return new String[]{NOT_A_WORD};
+    }
+}
@@ -15,6 +15,8 @@ import static commons.Constants.*;
  *
  * If an argument is found the server goes in testing mode,
  * it will print out all the messages sent and received
+ *
+ * While running, 'stats' prints the server counters and 'quit' terminates it
  */
 public class Main {
 
@@ -26,6 +28,7 @@ public class Main {
         }catch (IndexOutOfBoundsException ignored){}
 
 
+        UDPServer udpServer = new UDPServer();
         try(Reactor reactor = new Reactor(TCP_PORT)) {
 
             //activate and bind the remote object
@@ -35,7 +38,6 @@ public class Main {
             r.bind(WQ_STUB_NAME, wqRegister);
 
             //start UDP server
-            UDPServer udpServer = new UDPServer();
             udpServer.start();
 
             //start TCP server
@@ -44,9 +46,12 @@ public class Main {
             //wait for user input for termination
             Scanner scanner = new Scanner(System.in);
             String response = "";
-            while (!response.equals("quit") && !Thread.interrupted())
+            while (!response.equals("quit") && !Thread.interrupted()) {
                 if (!test)
                     response = scanner.nextLine();
+                if (response.equals("stats"))
+                    printStats();
+            }
 
             //terminate
             udpServer.interrupt();
@@ -54,6 +59,27 @@ public class Main {
         } catch (AlreadyBoundException | IOException | InterruptedException e) {
             e.printStackTrace();
         }
+
+        //the database is closed only when the servers are stopped, no change can follow its last snapshot
+        udpServer.interrupt();
+        try {
+            udpServer.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        UserDB.instance.close();
         System.out.println("Server shutdown");
     }
+
+    /**
+     * Prints the counters of the server components
+     */
+    private static void printStats() {
+        System.out.println(BufferPool.instance);
+        System.out.println(ChallengeHandler.instance);
+        System.out.println(TranslationCache.instance);
+        System.out.println(UserDB.instance);
+        Runtime runtime = Runtime.getRuntime();
+        System.out.println("Heap: " + (runtime.totalMemory() - runtime.freeMemory()) / 1024 + " KB used of " + runtime.maxMemory() / 1024 + " KB");
+    }
 }
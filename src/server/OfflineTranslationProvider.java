@@ -0,0 +1,43 @@
+package server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static commons.Constants.NOT_A_WORD;
+
+/**
+ * Serves the translations from a TranslationDictionary, without any remote access
+ *
+ * The translations of a word are decoded the first time it is asked and then reused,
+ * so that the following lookups don't allocate anything
+ */
+class OfflineTranslationProvider implements TranslationProvider {
+
+    private static final CompletableFuture<String[]> NO_TRANSLATION = CompletableFuture.completedFuture(new String[]{NOT_A_WORD});
+
+    private final TranslationDictionary dictionary;
+    private final AtomicReferenceArray<CompletableFuture<String[]>> decoded; //translations already decoded, by entry index
+
+    /**
+     * @param dictionary The dictionary with the translations
+     */
+    OfflineTranslationProvider(TranslationDictionary dictionary) {
+        this.dictionary = dictionary;
+        decoded = new AtomicReferenceArray<>(dictionary.size());
+    }
+
+    @Override
+    public CompletableFuture<String[]> translate(String word) {
+        int index = dictionary.indexOf(word);
+        if (index == -1)
+            return NO_TRANSLATION;
+
+        CompletableFuture<String[]> translations = decoded.get(index);
+        if (translations == null) {
+            //concurrent decodings of the same word are harmless, the last one wins
+            translations = CompletableFuture.completedFuture(dictionary.getTranslations(index));
+            decoded.set(index, translations);
+        }
+        return translations;
+    }
+}
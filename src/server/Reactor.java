@@ -7,50 +7,88 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 
-
+/**
+ * The acceptor of the TCP server
+ *
+ * It only accepts the incoming connections and hands each of them to the least loaded
+ * of its worker event loops, which will do all the I/O for that connection
+ */
 class Reactor extends Thread implements AutoCloseable {
 
     private final Selector selector;
     private final ServerSocketChannel serverSocket;
+    private final EventLoop[] eventLoops;
 
     Reactor(int port) throws IOException {
+        this(port, Consts.REACTOR_WORKERS);
+    }
+
+    /**
+     * @param port The TCP port to listen to
+     * @param workers The number of worker event loops, at least one is always created
+     */
+    Reactor(int port, int workers) throws IOException {
+        super("Reactor");
         selector = Selector.open();
         serverSocket = ServerSocketChannel.open();
         serverSocket.socket().bind(new InetSocketAddress(port));
         serverSocket.configureBlocking(false);
-        SelectionKey selectionKey = serverSocket.register(selector, SelectionKey.OP_ACCEPT);
-        selectionKey.attach("");
+        serverSocket.register(selector, SelectionKey.OP_ACCEPT);
+
+        eventLoops = new EventLoop[Math.max(1, workers)];
+        for (int i = 0; i < eventLoops.length; i++)
+            eventLoops[i] = new EventLoop(i);
     }
 
 
     @Override
     public void run() {
+        for (EventLoop eventLoop : eventLoops)
+            eventLoop.start();
+
         try {
             while (!interrupted()) {
                 selector.select();
 
-                for (SelectionKey selectedKey : selector.selectedKeys()) {
-                    Object object = (selectedKey.attachment());
-                    if (object instanceof String) {
-                        SocketChannel channel = serverSocket.accept();
-                        if (channel != null)
-                            new Handler(selector, channel);
-                    } else if (object instanceof Runnable){
-                        ((Runnable) object).run();
-                    }
+                if (!selector.selectedKeys().isEmpty()) {
+                    SocketChannel channel;
+                    while ((channel = serverSocket.accept()) != null)
+                        leastLoaded().register(channel);
                 }
                 selector.selectedKeys().clear();
             }
-            Handler.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * @return The port the server listens to, chosen by the system if it was created with port 0
+     */
+    int getPort() {
+        return serverSocket.socket().getLocalPort();
+    }
+
+    /**
+     * @return The event loop with the lowest number of connections
+     */
+    private EventLoop leastLoaded() {
+        EventLoop leastLoaded = eventLoops[0];
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop.getConnections() < leastLoaded.getConnections())
+                leastLoaded = eventLoop;
+        }
+        return leastLoaded;
+    }
+
     @Override
     public void close() throws IOException, InterruptedException {
         this.interrupt();
+        selector.wakeup();
         join();
+        for (EventLoop eventLoop : eventLoops)
+            eventLoop.close();
+        Handler.close();
         selector.close();
         serverSocket.close();
     }
@@ -0,0 +1,161 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static commons.Constants.*;
+
+/**
+ * Byte level tokenizer for the requests received by the server
+ *
+ * Requests are made of tokens separated by spaces, the first one being the verb.
+ * Tokens are read straight from the buffer, moving its position forward: verbs are matched
+ * against pre-encoded constants and numbers are parsed in place, so that a String
+ * is allocated only for the tokens which are actually needed as such (es. usernames)
+ *
+ * A missing token is reported with an IndexOutOfBoundsException, a malformed number
+ * with a NumberFormatException
+ */
+final class RequestParser {
+
+    static final int UNKNOWN = -1; //returned when the verb doesn't match any of the given ones
+
+    //requests through TCP, indexes of TCP_VERBS
+    static final int LOGIN = 0, LOGOUT = 1, ADD_FRIEND = 2, FRIEND_LIST = 3, CHALLENGE = 4, SCORE = 5,
+            RANKINGS = 6, NEXT_WORD = 7, READY_FOR_CHALLENGE = 8, CHALLENGE_RECAP = 9;
+    static final byte[][] TCP_VERBS = encode(REQUEST_LOGIN, REQUEST_LOGOUT, REQUEST_ADD_FRIEND, REQUEST_FRIEND_LIST,
+            REQUEST_CHALLENGE, REQUEST_SCORE, REQUEST_RANKINGS, REQUEST_NEXT_WORD, REQUEST_READY_FOR_CHALLENGE,
+            REQUEST_CHALLENGE_RECAP);
+
+    //requests through UDP, indexes of UDP_VERBS
+    static final int UDP_CHALLENGE = 0, UDP_CHALLENGE_OK = 1, UDP_CHALLENGE_REFUSED = 2;
+    static final byte[][] UDP_VERBS = encode(REQUEST_CHALLENGE, CHALLENGE_OK, CHALLENGE_REFUSED);
+
+    private static final byte SEPARATOR = ' ';
+
+    private RequestParser() {}
+
+    private static byte[][] encode(String... verbs) {
+        byte[][] encoded = new byte[verbs.length][];
+        for (int i = 0; i < verbs.length; i++)
+            encoded[i] = verbs[i].getBytes(StandardCharsets.UTF_8);
+        return encoded;
+    }
+
+    /**
+     * Reads the next token and matches it against the given verbs
+     * @param request The buffer containing the request
+     * @param verbs The encoded verbs to match
+     * @return The index of the matching verb or UNKNOWN
+     */
+    static int nextVerb(ByteBuffer request, byte[][] verbs) {
+        int start = skipSeparators(request);
+        int end = tokenEnd(request, start);
+        request.position(end);
+
+        for (int i = 0; i < verbs.length; i++) {
+            if (tokenEquals(request, start, end, verbs[i]))
+                return i;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Parses the next token as a non negative integer
+     */
+    static int nextInt(ByteBuffer request) {
+        int start = nextTokenStart(request);
+        int end = tokenEnd(request, start);
+        request.position(end);
+
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = request.get(i) - '0';
+            if (digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10)
+                throw new NumberFormatException("Not a valid integer token");
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return The next token as a String
+     */
+    static String nextString(ByteBuffer request) {
+        int start = nextTokenStart(request);
+        int end = tokenEnd(request, start);
+        request.position(end);
+        return decode(request, start, end);
+    }
+
+    /**
+     * Moves past the next token only if it is equal to the given one
+     * @param token The encoded token to match
+     * @return true if the token matched, otherwise the position of the buffer is left untouched
+     */
+    static boolean nextTokenEquals(ByteBuffer request, byte[] token) {
+        int start = skipSeparators(request);
+        int end = tokenEnd(request, start);
+        if (!tokenEquals(request, start, end, token))
+            return false;
+        request.position(end);
+        return true;
+    }
+
+    /**
+     * @return true if there is at least another token in the request
+     */
+    static boolean hasNext(ByteBuffer request) {
+        int start = skipSeparators(request);
+        request.position(start);
+        return start < request.limit();
+    }
+
+    /**
+     * @return The whole request as a string, the position of the buffer is left untouched
+     */
+    static String toString(ByteBuffer request) {
+        return decode(request, 0, request.limit());
+    }
+
+    private static int nextTokenStart(ByteBuffer request) {
+        int start = skipSeparators(request);
+        if (start == request.limit())
+            throw new IndexOutOfBoundsException("Missing token in request");
+        return start;
+    }
+
+    private static int skipSeparators(ByteBuffer request) {
+        int index = request.position();
+        while (index < request.limit() && request.get(index) == SEPARATOR)
+            index++;
+        return index;
+    }
+
+    private static int tokenEnd(ByteBuffer request, int start) {
+        int index = start;
+        while (index < request.limit() && request.get(index) != SEPARATOR)
+            index++;
+        return index;
+    }
+
+    private static boolean tokenEquals(ByteBuffer request, int start, int end, byte[] verb) {
+        if (end - start != verb.length)
+            return false;
+        for (int i = 0; i < verb.length; i++) {
+            if (request.get(start + i) != verb[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer request, int start, int end) {
+        if (request.hasArray())
+            return new String(request.array(), request.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = request.get(start + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,140 @@
+package server;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static commons.Constants.*;
+
+/**
+ * Measures the cost of parsing the TCP requests: the time and the bytes allocated per request by RequestParser,
+ * compared to the String/split parsing it replaced
+ *
+ * Both paths read the fields the Handler needs from a mix of requests dominated by the challenge traffic.
+ * As in the server, RequestParser reads a direct buffer and recognizes the user logged with the connection
+ * without decoding his name, while the old path decodes a heap buffer to a String and splits it
+ *
+ * Arguments (all optional): requests per run (1000000), runs (10)
+ */
+public class RequestParserBenchmark {
+
+    private static final String USERNAME = "player_one";
+    private static final byte[] SESSION_USERNAME = USERNAME.getBytes(StandardCharsets.UTF_8);
+    private static final String[] REQUESTS = {
+            REQUEST_NEXT_WORD + " 1234 " + USERNAME + " casa",
+            REQUEST_NEXT_WORD + " 1234 " + USERNAME + " albero",
+            REQUEST_NEXT_WORD + " 1234 " + USERNAME + " finestra",
+            REQUEST_READY_FOR_CHALLENGE + " 1234 " + USERNAME,
+            REQUEST_CHALLENGE_RECAP + " 1234",
+            REQUEST_SCORE + " " + USERNAME,
+            REQUEST_RANKINGS + " " + USERNAME,
+            REQUEST_LOGIN + " " + USERNAME + " password 5000"
+    };
+
+    private static long sink = 0; //results of the parsing, so that it cannot be optimized away
+
+    public static void main(String[] args) {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ByteBuffer[] direct = new ByteBuffer[REQUESTS.length];
+        byte[][] heap = new byte[REQUESTS.length][];
+        for (int i = 0; i < REQUESTS.length; i++) {
+            heap[i] = REQUESTS[i].getBytes(StandardCharsets.UTF_8);
+            direct[i] = ByteBuffer.allocateDirect(heap[i].length);
+            direct[i].put(heap[i]).flip();
+        }
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long bestParserTime = Long.MAX_VALUE, bestSplitTime = Long.MAX_VALUE;
+        long parserBytes = 0, splitBytes = 0;
+        for (int run = 0; run < runs; run++) {
+            long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+            long startTime = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                ByteBuffer request = direct[i % direct.length];
+                request.rewind();
+                parse(request);
+            }
+            bestParserTime = Math.min(bestParserTime, System.nanoTime() - startTime);
+            parserBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+            allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+            startTime = System.nanoTime();
+            for (int i = 0; i < requests; i++)
+                split(heap[i % heap.length]);
+            bestSplitTime = Math.min(bestSplitTime, System.nanoTime() - startTime);
+            splitBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        }
+
+        System.out.println(requests + " requests, best of " + runs + " runs (checksum " + sink + ")");
+        System.out.printf("  RequestParser: %.1f ns/request, %.1f bytes allocated/request%n",
+                bestParserTime / (double) requests, parserBytes / (double) requests);
+        System.out.printf("  String/split:  %.1f ns/request, %.1f bytes allocated/request%n",
+                bestSplitTime / (double) requests, splitBytes / (double) requests);
+    }
+
+    /**
+     * Reads the fields of the request as Handler.process() does
+     */
+    private static void parse(ByteBuffer request) {
+        switch (RequestParser.nextVerb(request, RequestParser.TCP_VERBS)) {
+            case RequestParser.NEXT_WORD:
+                sink += RequestParser.nextInt(request);
+                sink += RequestParser.nextTokenEquals(request, SESSION_USERNAME) ? 1 : RequestParser.nextString(request).length();
+                sink += RequestParser.nextString(request).length();
+                break;
+            case RequestParser.READY_FOR_CHALLENGE:
+                sink += RequestParser.nextInt(request);
+                sink += RequestParser.nextTokenEquals(request, SESSION_USERNAME) ? 1 : RequestParser.nextString(request).length();
+                break;
+            case RequestParser.CHALLENGE_RECAP:
+                sink += RequestParser.nextInt(request);
+                break;
+            case RequestParser.SCORE:
+            case RequestParser.RANKINGS:
+                sink += RequestParser.nextString(request).length();
+                break;
+            case RequestParser.LOGIN:
+                sink += RequestParser.nextString(request).length() + RequestParser.nextString(request).length();
+                if (RequestParser.hasNext(request))
+                    sink += RequestParser.nextInt(request);
+                break;
+            default:
+                sink--;
+        }
+    }
+
+    /**
+     * Reads the fields of the request as the Handler did before RequestParser
+     */
+    private static void split(byte[] input) {
+        String message = new String(input, 0, input.length, StandardCharsets.UTF_8);
+        String[] messageFragments = message.split(" ");
+        switch (messageFragments[0]) {
+            case REQUEST_NEXT_WORD:
+                sink += Integer.parseInt(messageFragments[1]);
+                sink += messageFragments[2].length() + messageFragments[3].length();
+                break;
+            case REQUEST_READY_FOR_CHALLENGE:
+                sink += Integer.parseInt(messageFragments[1]);
+                sink += messageFragments[2].length();
+                break;
+            case REQUEST_CHALLENGE_RECAP:
+                sink += Integer.parseInt(messageFragments[1]);
+                break;
+            case REQUEST_SCORE:
+            case REQUEST_RANKINGS:
+                sink += messageFragments[1].length();
+                break;
+            case REQUEST_LOGIN:
+                sink += messageFragments[1].length() + messageFragments[2].length();
+                if (messageFragments.length > 3)
+                    sink += Integer.parseInt(messageFragments[3]);
+                break;
+            default:
+                sink--;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces the concurrent lookups of the same word: while a word is being translated
+ * every other request for it shares the lookup in flight instead of starting a new one
+ */
+class SingleFlightTranslationProvider implements TranslationProvider {
+
+    private final TranslationProvider source;
+    private final ConcurrentHashMap<String, CompletableFuture<String[]>> inFlight = new ConcurrentHashMap<>(); //lookups not yet completed
+
+    /**
+     * @param source The provider that does the actual lookups
+     */
+    SingleFlightTranslationProvider(TranslationProvider source) {
+        this.source = source;
+    }
+
+    @Override
+    public CompletableFuture<String[]> translate(String word) {
+        CompletableFuture<String[]> lookup = new CompletableFuture<>();
+        CompletableFuture<String[]> sharedLookup = inFlight.putIfAbsent(word, lookup);
+        if (sharedLookup != null)
+            return sharedLookup;
+
+        source.translate(word).whenComplete((translations, exception) -> {
+            inFlight.remove(word, lookup);
+            if (exception != null)
+                lookup.completeExceptionally(exception);
+            else
+                lookup.complete(translations);
+        });
+        return lookup;
+    }
+}
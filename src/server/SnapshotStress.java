@@ -0,0 +1,178 @@
+package server;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress driver for the snapshots of UserDB: takes snapshots back to back while many threads change the database,
+ * checks that every stored snapshot is a consistent image and that the database restored after a crash is complete
+ *
+ * Each writer owns a user and repeats: register a new user, add a point to the owner, befriend the new user.
+ * In any consistent image the owner with score s has s or s + 1 registered users and s - 1 or s friends,
+ * every friendship is in both lists and links registered users (a friendship with a user missing from the image
+ * would be dropped by the loader, and the owner would have too few friends).
+ * At the end the writers stop and the process halts without closing the log, a new process restores the database
+ * from the snapshot and the log and checks that every iteration is there
+ *
+ * Arguments (all optional): seconds (10), writer threads (8)
+ *
+ * It registers its own users in the user database, so it should be run in an empty directory
+ */
+public class SnapshotStress {
+
+    private static final String PASSWORD = "password";
+    private static final String VERIFY = "verify";
+
+    private static volatile boolean running = true;
+    private static final AtomicLong operations = new AtomicLong(0);
+    private static final AtomicLong maxLatency = new AtomicLong(0); //ns, the longest change
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(VERIFY)) {
+            verify(Integer.parseInt(args[1]));
+            return;
+        }
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        System.setProperty("wq.snapshotInterval", String.valueOf(Long.MAX_VALUE)); //only the snapshots taken here
+
+        InetAddress address = InetAddress.getLoopbackAddress();
+        Thread[] writers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            String owner = "owner" + i;
+            UserDB.instance.addUser(owner, PASSWORD);
+            UserDB.instance.logUser(owner, PASSWORD, address, i);
+            UserDB.instance.getUser(UserDB.instance.getUserId(owner)).addMatch(1);
+            int port = i;
+            writers[i] = new Thread(() -> write(owner, address, port), "Writer");
+            writers[i].setDaemon(true);
+        }
+        System.out.println("Changing the database on " + threads + " threads for " + seconds + " s while taking snapshots");
+        for (Thread writer : writers)
+            writer.start();
+
+        long endTime = System.currentTimeMillis() + seconds * 1000L;
+        int snapshots = 0;
+        boolean consistent = true;
+        while (System.currentTimeMillis() < endTime && consistent) {
+            UserDB.takeSnapshot();
+            consistent = checkSnapshot(threads);
+            snapshots++;
+        }
+        running = false;
+        for (Thread writer : writers)
+            writer.join();
+
+        System.out.printf("%d snapshots checked, %s; %d changes, %.0f changes/s, longest change %.2f ms%n",
+                snapshots, consistent ? "all consistent" : "INCONSISTENT", operations.get(),
+                operations.get() / (double) seconds, maxLatency.get() / 1e6);
+        if (!consistent)
+            Runtime.getRuntime().halt(1);
+
+        Thread.sleep(2 * Consts.USER_LOG_FSYNC_INTERVAL); //the log writer gets to the end, as it would before a crash
+        Process restore = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), SnapshotStress.class.getName(), VERIFY, String.valueOf(threads))
+                .inheritIO().start();
+        Runtime.getRuntime().halt(restore.waitFor()); //without closing the log
+    }
+
+    private static void write(String owner, InetAddress address, int port) {
+        int ownerId = UserDB.instance.getUserId(owner);
+        try {
+            for (int i = 0; running; i++) {
+                long startTime = System.nanoTime();
+                String friend = owner + "_" + i;
+                UserDB.instance.addUser(friend, PASSWORD);
+                UserDB.instance.updateScore(ownerId, 1, 1);
+                UserDB.instance.addFriendship(owner, friend, address, port);
+                maxLatency.accumulateAndGet((System.nanoTime() - startTime) / 3, Math::max);
+                operations.addAndGet(3);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            running = false;
+        }
+    }
+
+    /**
+     * Reads the stored snapshot back and checks that it's a consistent image
+     */
+    private static boolean checkSnapshot(int threads) throws IOException {
+        UserDB.User[] users = UserSnapshot.readUsers(Consts.USER_TABLE_SNAPSHOT_FILENAME);
+        UserDB.SimpleGraph graph = UserSnapshot.readGraph(Consts.USER_GRAPH_SNAPSHOT_FILENAME, users);
+        HashMap<String, UserDB.User> table = new HashMap<>();
+        for (UserDB.User user : users) {
+            if (user != null)
+                table.put(user.getName(), user);
+        }
+
+        HashSet<Long> arches = new HashSet<>();
+        for (int id = 0; id < graph.size(); id++) {
+            for (int friend : graph.getLinkedNodes(id))
+                arches.add((long) id << 32 | friend);
+        }
+        for (long arch : arches) {
+            int id1 = (int) (arch >>> 32);
+            int id2 = (int) arch;
+            if (!arches.contains((long) id2 << 32 | id1)) {
+                System.out.println("Friendship stored on one side only: " + id1 + " - " + id2);
+                return false;
+            }
+        }
+
+        int[] registered = new int[threads];
+        table.keySet().forEach(name -> {
+            if (name.contains("_"))
+                registered[Integer.parseInt(name.substring("owner".length(), name.indexOf('_')))]++;
+        });
+        for (int i = 0; i < threads; i++) {
+            UserDB.User owner = table.get("owner" + i);
+            int score = owner.getScore();
+            int friends = graph.getLinkedNodes(owner.getId()).length;
+            boolean valid = (registered[i] == score && (friends == score || friends == score - 1))
+                    || (registered[i] == score + 1 && friends == score);
+            if (!valid) {
+                System.out.println("owner" + i + ": score " + score + ", " + registered[i] + " registered, " + friends + " friends");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the database restored after the crash, all the iterations of the writers are complete
+     */
+    private static void verify(int threads) {
+        InetAddress address = InetAddress.getLoopbackAddress();
+        int restored = 0;
+        for (int i = 0; i < threads; i++) {
+            String owner = "owner" + i;
+            UserDB.User user = UserDB.instance.getUser(UserDB.instance.getUserId(owner));
+            int registered = 0;
+            while (UserDB.instance.getUserId(owner + "_" + registered) != -1)
+                registered++;
+            int friends;
+            try {
+                UserDB.instance.logUser(owner, PASSWORD, address, i);
+                friends = new Gson().fromJson(UserDB.instance.getFriends(owner, address, i), String[].class).length;
+            } catch (Exception e) {
+                e.printStackTrace();
+                Runtime.getRuntime().halt(1);
+                return;
+            }
+            if (user.getScore() != registered || friends != registered) {
+                System.out.println("Restored " + owner + ": score " + user.getScore() + ", " + registered + " registered, " + friends + " friends");
+                Runtime.getRuntime().halt(1);
+            }
+            restored += registered;
+        }
+        System.out.println("Restored database complete: " + restored + " iterations of " + threads + " writers");
+        Runtime.getRuntime().halt(0);
+    }
+}
@@ -0,0 +1,84 @@
+package server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the MyMemory translation API, to test and benchmark the server without network
+ *
+ * It answers every word with "word_en", after a configurable delay that simulates the round trip time.
+ * Start the server with -Dwq.translationUrl=http://localhost:port/get to use it, its translations are then
+ * kept out of the translation cache file. The benchmarks start it in their own process with start()
+ *
+ * Arguments: the port (default 8090) and the delay in ms (default 300)
+ */
+public class StubTranslationServer {
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8090;
+        long delay = args.length > 1 ? Long.parseLong(args[1]) : 300;
+        start(port, delay, true);
+        System.out.println("Stub translation server listening on port " + port + " with " + delay + " ms of delay");
+    }
+
+    /**
+     * Starts the stub on daemon threads
+     * @param port The port to listen to, 0 for any free port
+     * @param delay The time taken by each answer, in ms
+     * @param verbose true to print every request
+     * @return The running server, its address has the actual port
+     */
+    static HttpServer start(int port, long delay, boolean verbose) throws IOException {
+        AtomicLong requests = new AtomicLong(0);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "StubTranslation");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext("/get", exchange -> {
+            String query = exchange.getRequestURI().getRawQuery();
+            String word = "";
+            for (String parameter : query == null ? new String[0] : query.split("&")) {
+                if (parameter.startsWith("q="))
+                    word = URLDecoder.decode(parameter.substring(2), StandardCharsets.UTF_8);
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ignored) {}
+
+            //same shape of the MyMemory response, only the fields read by the server
+            JsonObject responseData = new JsonObject();
+            responseData.addProperty("translatedText", word + "_en");
+            JsonObject match = new JsonObject();
+            match.addProperty("translation", word + "_en");
+            JsonArray matches = new JsonArray();
+            matches.add(match);
+            JsonObject response = new JsonObject();
+            response.add("responseData", responseData);
+            response.add("matches", matches);
+
+            byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+            if (verbose)
+                System.out.println("Request " + requests.incrementAndGet() + ": " + word);
+        });
+        server.start();
+        return server;
+    }
+}
@@ -0,0 +1,200 @@
+package server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hashed timing wheel that runs tasks after a delay
+ *
+ * Time is divided in ticks and the wheel in buckets, each deadline is stored in the bucket of its tick
+ * with the number of whole turns of the wheel still to wait. Scheduling and cancelling cost O(1):
+ * both only add the timeout to a concurrent queue which is drained by the wheel thread at every tick,
+ * buckets are doubly linked lists so that a cancelled timeout is unlinked in constant time
+ *
+ * The tasks are run by the wheel thread, they must be short and must not block.
+ * Deadlines are rounded up to the next tick. Time is measured with the given clock
+ */
+class TimingWheel {
+
+    private final Clock clock;
+    private final long tickDuration; //in ns
+    private final Bucket[] wheel;
+    private final int mask; //wheel.length - 1, wheel size is a power of two
+    private final long startTime;
+    private long tick = 0; //ticks elapsed since start, only accessed by the wheel thread
+
+    private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<>(); //timeouts still to be put in the wheel
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>(); //timeouts still to be removed from the wheel
+    private final AtomicInteger pending = new AtomicInteger(0); //timeouts scheduled and neither expired nor cancelled
+
+    /**
+     * Creates the wheel and starts its thread
+     * @param tickDuration The duration of a tick in ms, the precision of the deadlines
+     * @param wheelSize The number of buckets, rounded up to a power of two
+     * @param clock The clock that measures the delays
+     */
+    TimingWheel(long tickDuration, int wheelSize, Clock clock) {
+        this.clock = clock;
+        this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++)
+            wheel[i] = new Bucket();
+        mask = size - 1;
+        startTime = clock.nanoTime();
+
+        Thread worker = new Thread(this::run, "TimingWheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedules a task to be run after the given delay
+     * @param task The task to be run by the wheel thread
+     * @param delay The delay in ms
+     * @return A handle to cancel the task
+     */
+    Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(task, clock.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(delay));
+        pending.incrementAndGet();
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return The number of timeouts waiting to expire
+     */
+    int getPending() {
+        return pending.get();
+    }
+
+    private void run() {
+        while (true) {
+            //wait for the end of the current tick
+            long deadline = (tick + 1) * tickDuration;
+            long sleepTime = deadline - (clock.nanoTime() - startTime);
+            if (sleepTime > 0) {
+                try {
+                    clock.sleep(sleepTime);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+
+            removeCancelled();
+            transferScheduled();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    /**
+     * Moves the new timeouts from the queue to their bucket
+     */
+    private void transferScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.state.get() == Timeout.CANCELLED)
+                continue;
+
+            long deadlineTick = Math.max(tick, (timeout.deadline + tickDuration - 1) / tickDuration); //past deadlines expire now
+            timeout.remainingRounds = (deadlineTick - tick) / wheel.length;
+            wheel[(int) (deadlineTick & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null)
+                timeout.bucket.remove(timeout);
+        }
+    }
+
+    /**
+     * A task scheduled in the wheel
+     */
+    class Timeout {
+        private static final int WAITING = 0, CANCELLED = 1, EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline; //in ns since the start of the wheel
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        //only accessed by the wheel thread
+        private long remainingRounds;
+        private Bucket bucket = null;
+        private Timeout next = null;
+        private Timeout previous = null;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the task if it has not been run yet
+         * @return true if the task will not be run because of this call
+         */
+        boolean cancel() {
+            if (!state.compareAndSet(WAITING, CANCELLED))
+                return false;
+            pending.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+    }
+
+    /**
+     * A doubly linked list of timeouts, only accessed by the wheel thread
+     */
+    private class Bucket {
+        private Timeout head = null;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.next = head;
+            if (head != null)
+                head.previous = timeout;
+            head = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.previous != null)
+                timeout.previous.next = timeout.next;
+            else
+                head = timeout.next;
+            if (timeout.next != null)
+                timeout.next.previous = timeout.previous;
+            timeout.bucket = null;
+            timeout.next = null;
+            timeout.previous = null;
+        }
+
+        /**
+         * Runs the timeouts of this bucket whose deadline is in the current turn of the wheel
+         */
+        void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if (timeout.state.compareAndSet(Timeout.WAITING, Timeout.EXPIRED)) {
+                        pending.decrementAndGet();
+                        try {
+                            timeout.task.run();
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
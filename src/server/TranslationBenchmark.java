@@ -0,0 +1,126 @@
+package server;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static commons.Constants.*;
+
+/**
+ * Measures the time needed to translate the words of a challenge against a StubTranslationServer started
+ * in this process, which stands in for the remote API with a fixed round trip time
+ *
+ * Many challenges are created at the same time, each translating CHALLENGE_WORDS_TO_MATCH distinct words drawn
+ * from the most common words of the dictionary. It compares the lookups one after another, the concurrent fan-out,
+ * and the fan-out with the coalescing of the lookups of the same word, reporting the challenges per second,
+ * the mean and p99 time to translate a challenge and the requests that reached the remote API.
+ * The translation cache is left out, so that every challenge pays for its lookups
+ *
+ * Arguments (all optional): challenges (200), concurrent challenges (4), round trip time in ms (100),
+ * common words to draw from (200), dictionary file ('dictionary')
+ */
+public class TranslationBenchmark {
+
+    private static final String SEQUENTIAL = "sequential", FAN_OUT = "fan-out", SINGLE_FLIGHT = "fan-out + single-flight";
+
+    public static void main(String[] args) throws Exception {
+        int challenges = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int concurrentChallenges = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long roundTripTime = args.length > 2 ? Long.parseLong(args[2]) : 100;
+        int commonWords = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        String dictionaryFilename = args.length > 4 ? args[4] : Consts.DICTIONARY_FILENAME;
+
+        //must be set before the translation URL is read, it also keeps the stub translations out of the cache file
+        HttpServer stub = StubTranslationServer.start(0, roundTripTime, false);
+        System.setProperty("wq.translationUrl", "http://localhost:" + stub.getAddress().getPort() + "/get");
+
+        WordList dictionary = WordList.load(dictionaryFilename);
+        commonWords = Math.min(Math.max(commonWords, CHALLENGE_WORDS_TO_MATCH), dictionary.size());
+        System.out.println(challenges + " challenges, " + concurrentChallenges + " at a time, " + CHALLENGE_WORDS_TO_MATCH
+                + " words each from the first " + commonWords + " words of " + dictionaryFilename + ", "
+                + roundTripTime + " ms of round trip time, " + Consts.TRANSLATION_THREADS + " HTTP threads");
+
+        for (String mode : new String[]{SEQUENTIAL, FAN_OUT, SINGLE_FLIGHT})
+            run(mode, dictionary, commonWords, challenges, concurrentChallenges);
+        stub.stop(0);
+    }
+
+    /**
+     * Translates the words of the given number of challenges and prints the results
+     */
+    private static void run(String mode, WordList dictionary, int commonWords, int challenges, int concurrentChallenges)
+            throws InterruptedException {
+        AtomicLong remoteLookups = new AtomicLong(0);
+        TranslationProvider http = new HttpTranslationProvider(Consts.TRANSLATION_THREADS);
+        TranslationProvider counted = word -> {
+            remoteLookups.incrementAndGet();
+            return http.translate(word);
+        };
+        TranslationProvider provider = mode.equals(SINGLE_FLIGHT) ? new SingleFlightTranslationProvider(counted) : counted;
+
+        long[] latencies = new long[challenges];
+        AtomicInteger nextChallenge = new AtomicInteger(0);
+        AtomicLong failures = new AtomicLong(0);
+        ExecutorService creators = Executors.newFixedThreadPool(concurrentChallenges);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < concurrentChallenges; i++) {
+            creators.execute(() -> {
+                int challenge;
+                while ((challenge = nextChallenge.getAndIncrement()) < challenges) {
+                    String[] words = pickWords(dictionary, commonWords);
+                    long challengeStart = System.nanoTime();
+                    if (!translate(mode, provider, words))
+                        failures.incrementAndGet();
+                    latencies[challenge] = System.nanoTime() - challengeStart;
+                }
+            });
+        }
+        creators.shutdown();
+        creators.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+
+        Arrays.sort(latencies);
+        double mean = Arrays.stream(latencies).average().orElse(0);
+        System.out.printf("  %-24s %.0f challenges/s, mean %.1f ms, p99 %.1f ms, %.2f remote lookups per challenge, %d failed%n",
+                mode + ":", challenges / seconds, mean / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6,
+                remoteLookups.get() / (double) challenges, failures.get());
+    }
+
+    /**
+     * @return Distinct words among the first commonWords of the dictionary
+     */
+    private static String[] pickWords(WordList dictionary, int commonWords) {
+        int[] wordIds = ThreadLocalRandom.current().ints(0, commonWords).distinct().limit(CHALLENGE_WORDS_TO_MATCH).toArray();
+        String[] words = new String[wordIds.length];
+        for (int i = 0; i < words.length; i++)
+            words[i] = dictionary.get(wordIds[i]);
+        return words;
+    }
+
+    /**
+     * Translates the words of a challenge
+     * @return false if any of the words could not be translated
+     */
+    private static boolean translate(String mode, TranslationProvider provider, String[] words) {
+        boolean translated = true;
+        if (mode.equals(SEQUENTIAL)) {
+            for (String word : words)
+                translated &= !NOT_A_WORD.equals(provider.translate(word).join()[0]);
+            return translated;
+        }
+        CompletableFuture<?>[] lookups = new CompletableFuture<?>[words.length];
+        for (int i = 0; i < words.length; i++)
+            lookups[i] = provider.translate(words[i]);
+        CompletableFuture.allOf(lookups).join();
+        for (CompletableFuture<?> lookup : lookups)
+            translated &= !NOT_A_WORD.equals(((String[]) lookup.join())[0]);
+        return translated;
+    }
+}
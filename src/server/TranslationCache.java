@@ -0,0 +1,171 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the translations of the italian words, the least recently used are evicted first
+ *
+ * The cache is backed by a file with a word and its translations per line, separated by tabs.
+ * The file is loaded at startup and every new translation is appended to it,
+ * so that a word is translated remotely only once in the life of the server.
+ * It is kept in memory only when the translations come from an endpoint other than the default one
+ *
+ * Uses singleton pattern, thread safety is assured by synchronized methods
+ */
+class TranslationCache {
+
+    static final TranslationCache instance = new TranslationCache(
+            Consts.TRANSLATION_CACHE_PERSISTENT ? Consts.TRANSLATION_CACHE_FILENAME : null, Consts.TRANSLATION_CACHE_SIZE);
+
+    private static final String SEPARATOR = "\t";
+
+    private final LinkedHashMap<String, String[]> translations;
+    private final Path file; //null if the cache is kept only in memory
+    private BufferedWriter fileWriter = null; //appends the new translations, null if the file is not writable
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong loadCount = new AtomicLong(0); //translations loaded and added to the cache
+    private final AtomicLong loadTime = new AtomicLong(0); //ns spent loading the translations added to the cache
+
+    /**
+     * @param filename The file backing the cache, created if missing, null to keep it only in memory
+     * @param maxSize The max number of words kept in memory
+     */
+    private TranslationCache(String filename, int maxSize) {
+        translations = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                return size() > maxSize;
+            }
+        };
+        file = filename == null ? null : Paths.get(filename);
+        if (file == null)
+            return;
+
+        int lines = loadFromFile();
+        try {
+            if (lines > translations.size())
+                compactFile(); //drop duplicated and evicted words
+            fileWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Loads the translations stored in the file, the latest lines win
+     * @return The number of lines read
+     */
+    private int loadFromFile() {
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fragments = line.split(SEPARATOR);
+                if (fragments.length > 1) {
+                    String[] wordTranslations = new String[fragments.length - 1];
+                    System.arraycopy(fragments, 1, wordTranslations, 0, wordTranslations.length);
+                    translations.put(fragments[0], wordTranslations);
+                }
+                lines++;
+            }
+        } catch (NoSuchFileException e) {
+            //file doesn't exist, yet
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return lines;
+    }
+
+    /**
+     * Rewrites the file with only the words currently cached
+     * it first writes to a tmp file and then attempts to rename it to the final name
+     */
+    private void compactFile() throws IOException {
+        Path tmpFile = Paths.get(file + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String[]> entry : translations.entrySet())
+                writeEntry(writer, entry.getKey(), entry.getValue());
+        }
+        Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeEntry(BufferedWriter writer, String word, String[] wordTranslations) throws IOException {
+        writer.write(word);
+        for (String translation : wordTranslations) {
+            if (translation != null) {
+                writer.write(SEPARATOR);
+                writer.write(translation.replace('\t', ' ').replace('\n', ' '));
+            }
+        }
+        writer.newLine();
+    }
+
+    /**
+     * @param word The italian word
+     * @return The cached translations of the word, null if missing
+     */
+    synchronized String[] get(String word) {
+        String[] wordTranslations = translations.get(word);
+        if (wordTranslations != null)
+            hits.incrementAndGet();
+        else
+            misses.incrementAndGet();
+        return wordTranslations;
+    }
+
+    /**
+     * Adds the translations of a word which was missing
+     * @param word The italian word
+     * @param wordTranslations Its translations
+     * @param loadTime The time it took to load them, in ns
+     */
+    synchronized void put(String word, String[] wordTranslations, long loadTime) {
+        this.loadTime.addAndGet(loadTime);
+        loadCount.incrementAndGet();
+        translations.put(word, wordTranslations);
+        if (fileWriter != null) {
+            try {
+                writeEntry(fileWriter, word, wordTranslations);
+                fileWriter.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return The fraction of lookups served by the cache
+     */
+    double getHitRatio() {
+        long lookups = hits.get() + misses.get();
+        return lookups == 0 ? 0 : (double) hits.get() / lookups;
+    }
+
+    /**
+     * @return The mean time needed to load a missing translation, in ms
+     */
+    double getMeanLoadTime() {
+        long loads = loadCount.get();
+        return loads == 0 ? 0 : loadTime.get() / 1e6 / loads;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Translation cache: %d hits, %d misses, hit ratio %.2f, mean load time %.1f ms",
+                hits.get(), misses.get(), getHitRatio(), getMeanLoadTime());
+    }
+}
@@ -0,0 +1,226 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A read only italian to english dictionary stored in a memory mapped binary file
+ *
+ * File format, all integers are big endian:
+ * header: magic, version, number of entries, max translations per entry (4 bytes each)
+ * index: the offset of each entry from the start of the entries, sorted by the UTF-8 bytes of the word
+ * entries: word length (1 byte), word, number of translations (1 byte),
+ * then length (1 byte) and UTF-8 bytes of each translation
+ *
+ * A word is found with a binary search on the index which compares the mapped bytes
+ * with the searched string as they are, so a lookup costs O(log n) without any allocation.
+ * Thread safety is assured by the use of absolute reads only
+ */
+class TranslationDictionary {
+
+    private static final int MAGIC = 0x57515444; //"WQTD"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+    private static final int MAX_STRING_LENGTH = 255; //in bytes, the length of a string is stored in a byte
+
+    private final MappedByteBuffer data;
+    private final int size; //number of entries
+    private final int entriesStart; //position of the first entry
+
+    /**
+     * Maps the given file
+     * @throws IOException If the file cannot be read or has not a valid format
+     */
+    TranslationDictionary(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename))) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); //mapping stays valid after close
+        }
+        if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC || data.getInt(4) != VERSION)
+            throw new IOException(filename + " is not a translation dictionary");
+        size = data.getInt(8);
+        entriesStart = HEADER_SIZE + size * Integer.BYTES;
+    }
+
+    /**
+     * @return The number of words in the dictionary
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param word The italian word
+     * @return The index of the entry of the word, -1 if the dictionary doesn't contain it
+     */
+    int indexOf(String word) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int position = entryPosition(middle);
+            int comparison = compare(position + 1, data.get(position) & 0xFF, word);
+            if (comparison < 0)
+                low = middle + 1;
+            else if (comparison > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    /**
+     * @param index The index of an entry
+     * @return The translations of the entry
+     */
+    String[] getTranslations(int index) {
+        int position = entryPosition(index);
+        position += 1 + (data.get(position) & 0xFF); //skip the word
+        String[] translations = new String[data.get(position++) & 0xFF];
+        for (int i = 0; i < translations.length; i++) {
+            int length = data.get(position++) & 0xFF;
+            translations[i] = decode(position, length);
+            position += length;
+        }
+        return translations;
+    }
+
+    /**
+     * @return All the words of the dictionary, in the order of their entries
+     */
+    WordList getWords() {
+        int[] offsets = new int[size + 1];
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            offsets[i] = length;
+            length += data.get(entryPosition(i)) & 0xFF;
+        }
+        offsets[size] = length;
+
+        byte[] words = new byte[length];
+        for (int i = 0; i < size; i++) {
+            int position = entryPosition(i) + 1;
+            for (int j = offsets[i]; j < offsets[i + 1]; j++)
+                words[j] = data.get(position++);
+        }
+        return new WordList(words, offsets, size);
+    }
+
+    private int entryPosition(int index) {
+        return entriesStart + data.getInt(HEADER_SIZE + index * Integer.BYTES);
+    }
+
+    /**
+     * Compares the UTF-8 string stored at the given position with the given one, encoding the latter on the fly
+     * @return A negative number, zero, or a positive number if the stored string is less than, equal to, or greater than the given one
+     */
+    private int compare(int position, int length, String string) {
+        int read = 0;
+        for (int i = 0; i < string.length(); i++) {
+            int codePoint = string.codePointAt(i);
+            if (Character.isSupplementaryCodePoint(codePoint))
+                i++;
+            int encodedLength = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            for (int j = 0; j < encodedLength; j++) {
+                if (read == length)
+                    return -1; //stored string is a prefix of the given one
+                int difference = (data.get(position + read) & 0xFF) - utf8Byte(codePoint, encodedLength, j);
+                if (difference != 0)
+                    return difference;
+                read++;
+            }
+        }
+        return read == length ? 0 : 1;
+    }
+
+    /**
+     * @return The index-th byte of the UTF-8 encoding of the given code point
+     */
+    private static int utf8Byte(int codePoint, int encodedLength, int index) {
+        if (encodedLength == 1)
+            return codePoint;
+        int shift = 6 * (encodedLength - 1 - index);
+        if (index == 0)
+            return (0xF00 >> encodedLength & 0xF0) | codePoint >> shift; //leading byte: 110xxxxx, 1110xxxx or 11110xxx
+        return 0x80 | (codePoint >> shift & 0x3F);
+    }
+
+    private String decode(int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = data.get(position + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a dictionary file with the given translations,
+     * it first writes to a tmp file and then attempts to rename it to the final name
+     * @param filename The file to be written
+     * @param translations The translations of each word, at most maxTranslations are kept for each word.
+     *                     Words or translations longer than 255 bytes are skipped
+     * @return The number of words written
+     */
+    static int write(String filename, Map<String, String[]> translations, int maxTranslations) throws IOException {
+        //encode and sort the entries
+        ArrayList<byte[][]> entries = new ArrayList<>(translations.size());
+        for (Map.Entry<String, String[]> entry : translations.entrySet()) {
+            byte[] word = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (word.length > MAX_STRING_LENGTH)
+                continue;
+            ArrayList<byte[]> encoded = new ArrayList<>();
+            encoded.add(word);
+            for (String translation : entry.getValue()) {
+                if (encoded.size() > maxTranslations)
+                    break;
+                if (translation == null)
+                    continue;
+                byte[] bytes = translation.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length <= MAX_STRING_LENGTH)
+                    encoded.add(bytes);
+            }
+            if (encoded.size() > 1)
+                entries.add(encoded.toArray(new byte[0][]));
+        }
+        entries.sort((entry1, entry2) -> Arrays.compareUnsigned(entry1[0], entry2[0]));
+
+        Path file = Paths.get(filename);
+        Path tmpFile = Paths.get(filename + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(entries.size());
+            output.writeInt(maxTranslations);
+
+            int offset = 0;
+            for (byte[][] entry : entries) {
+                output.writeInt(offset);
+                offset += entry.length + 1; //a length byte for each string plus the translation count
+                for (byte[] string : entry)
+                    offset += string.length;
+            }
+
+            for (byte[][] entry : entries) {
+                output.writeByte(entry[0].length);
+                output.write(entry[0]);
+                output.writeByte(entry.length - 1);
+                for (int i = 1; i < entry.length; i++) {
+                    output.writeByte(entry[i].length);
+                    output.write(entry[i]);
+                }
+            }
+        }
+        Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return entries.size();
+    }
+}
@@ -0,0 +1,97 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CompletableFuture;
+
+import static commons.Constants.NOT_A_WORD;
+
+/**
+ * Offline tool that builds the TranslationDictionary used by the server in offline mode
+ *
+ * Arguments: the output file, the source of the translations and one or more word lists.
+ * The word lists have the format of the dictionary used by the server: the number of words in the first line,
+ * then a word per line. The source is either 'http', to use the translation web API through the translation cache,
+ * or a file with a word and its translations per line, separated by tabs (es. the translation cache file).
+ * Words without a translation are left out
+ *
+ * es. java server.TranslationDictionaryBuilder translations.bin translation_cache.tsv dictionary long_dictionary
+ */
+public class TranslationDictionaryBuilder {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: TranslationDictionaryBuilder <output file> <http | tsv file> <word list>...");
+            return;
+        }
+
+        LinkedHashSet<String> words = new LinkedHashSet<>();
+        for (int i = 2; i < args.length; i++)
+            readWordList(args[i], words);
+        System.out.println(words.size() + " distinct words read");
+
+        TranslationProvider source = args[1].equals(Consts.TRANSLATIONS_HTTP) ?
+                new CachedTranslationProvider(TranslationCache.instance, new HttpTranslationProvider(Consts.TRANSLATION_THREADS)) :
+                new TsvTranslationSource(args[1]);
+
+        HashMap<String, CompletableFuture<String[]>> lookups = new HashMap<>();
+        for (String word : words)
+            lookups.put(word, source.translate(word));
+
+        HashMap<String, String[]> translations = new HashMap<>();
+        for (String word : words) {
+            String[] wordTranslations = lookups.get(word).join();
+            if (wordTranslations.length > 0 && !NOT_A_WORD.equals(wordTranslations[0]))
+                translations.put(word, wordTranslations);
+        }
+
+        int written = TranslationDictionary.write(args[0], translations, Consts.MAX_TRANSLATIONS_PER_WORD);
+        System.out.println(written + " words written to " + args[0] + ", " + Files.size(Paths.get(args[0])) + " bytes");
+    }
+
+    /**
+     * Adds the words of a word list to the given set, skipping the first line with the size
+     */
+    private static void readWordList(String filename, LinkedHashSet<String> words) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filename), StandardCharsets.UTF_8)) {
+            String line = reader.readLine(); //size of the list
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank())
+                    words.add(line.strip());
+            }
+        }
+    }
+
+    /**
+     * Translations read from a tab separated file
+     */
+    private static class TsvTranslationSource implements TranslationProvider {
+        private static final CompletableFuture<String[]> NO_TRANSLATION = CompletableFuture.completedFuture(new String[]{NOT_A_WORD});
+
+        private final HashMap<String, CompletableFuture<String[]>> translations = new HashMap<>();
+
+        private TsvTranslationSource(String filename) throws IOException {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(filename), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fragments = line.split("\t");
+                    if (fragments.length > 1) {
+                        String[] wordTranslations = new String[fragments.length - 1];
+                        System.arraycopy(fragments, 1, wordTranslations, 0, wordTranslations.length);
+                        translations.put(fragments[0], CompletableFuture.completedFuture(wordTranslations));
+                    }
+                }
+            }
+        }
+
+        @Override
+        public CompletableFuture<String[]> translate(String word) {
+            return translations.getOrDefault(word, NO_TRANSLATION);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package server;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A source of english translations for the italian words of the challenges
+ *
+ * Lookups are asynchronous so that a challenge can be created before its translations are known.
+ * The returned futures never complete exceptionally: when a word cannot be translated
+ * they are completed with an array containing only NOT_A_WORD
+ */
+interface TranslationProvider {
+
+    /**
+     * @param word The italian word to be translated
+     * @return A future completed with the accepted translations of the word
+     */
+    CompletableFuture<String[]> translate(String word);
+}
@@ -0,0 +1,103 @@
+package server;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static commons.Constants.NOT_A_WORD;
+
+/**
+ * The translations of the dictionary words, indexed by word id and shared by all the challenges
+ *
+ * The translations of a word are requested to the provider the first time the word is needed and kept
+ * for the life of the server, so that a challenge only has to store the ids of its words.
+ * Failed lookups are not kept, the next challenge with the same word will try again
+ *
+ * Thread safety is assured by the use of an atomic array
+ */
+class TranslationTable {
+
+    private final WordList dictionary;
+    private final TranslationProvider translationProvider;
+    private final AtomicReferenceArray<CompletableFuture<Entry>> entries; //by word id, null if never requested
+
+    /**
+     * @param dictionary The words, their index is their id
+     * @param translationProvider The provider of the translations
+     */
+    TranslationTable(WordList dictionary, TranslationProvider translationProvider) {
+        this.dictionary = dictionary;
+        this.translationProvider = translationProvider;
+        entries = new AtomicReferenceArray<>(dictionary.size());
+    }
+
+    /**
+     * @param wordId The id of a dictionary word
+     * @return A future completed with the translations of the word
+     */
+    CompletableFuture<Entry> get(int wordId) {
+        CompletableFuture<Entry> entry = entries.get(wordId);
+        if (entry != null)
+            return entry;
+
+        CompletableFuture<Entry> newEntry = new CompletableFuture<>();
+        if (!entries.compareAndSet(wordId, null, newEntry))
+            return entries.get(wordId); //someone else requested it in the meanwhile
+
+        translationProvider.translate(dictionary.get(wordId)).whenComplete((translations, error) -> {
+            //a provider failing against its contract is handled as a failed lookup
+            Entry translated = new Entry(error == null ? translations : new String[]{NOT_A_WORD});
+            if (translated.isFailed())
+                entries.compareAndSet(wordId, newEntry, null);
+            newEntry.complete(translated);
+        });
+        return newEntry;
+    }
+
+    /**
+     * Brings an answer to the form in which the translations are compared
+     */
+    static String normalize(String word) {
+        return word.strip().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The accepted translations of a word
+     */
+    static class Entry {
+        private final String translation; //shown to the users
+        private final HashSet<String> accepted = new HashSet<>(); //normalized translations
+
+        private Entry(String[] translations) {
+            String shownTranslation = null;
+            for (String translation : translations) {
+                if (translation == null || translation.isBlank())
+                    continue;
+                if (shownTranslation == null)
+                    shownTranslation = translation.strip();
+                if (!translation.equals(NOT_A_WORD))
+                    accepted.add(normalize(translation)); //a failed lookup accepts no answer
+            }
+            translation = shownTranslation == null ? "" : shownTranslation;
+        }
+
+        /**
+         * @return true if the given normalized answer is a correct translation
+         */
+        boolean accepts(String normalizedAnswer) {
+            return accepted.contains(normalizedAnswer);
+        }
+
+        /**
+         * @return The main translation of the word
+         */
+        String getTranslation() {
+            return translation;
+        }
+
+        private boolean isFailed() {
+            return accepted.isEmpty();
+        }
+    }
+}
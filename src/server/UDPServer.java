@@ -2,6 +2,7 @@ package server;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -32,23 +33,30 @@ class UDPServer extends Thread {
 
             byte[] buffer = new byte[MAX_MESSAGE_LENGTH];
             DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+            ByteBuffer requestBuffer = ByteBuffer.wrap(buffer); //view of the datagram used for parsing
 
             while (!interrupted()) {
                 try {
                     //wait for challenge request
                     socket.receive(request);
 
-                    //get message string
-                    String message = new String(buffer, 0, request.getLength(), StandardCharsets.UTF_8);
-                    String[] messageFragments = message.split(" ");
+                    requestBuffer.clear();
+                    requestBuffer.limit(request.getLength());
 
                     SocketAddress challengedAddress;
                     SocketAddress challengerAddress;
 
-                    switch (messageFragments[0]) {
-                        case REQUEST_CHALLENGE:
-                            String challenger = messageFragments[1];
-                            String challenged = messageFragments[2];
+                    switch (RequestParser.nextVerb(requestBuffer, RequestParser.UDP_VERBS)) {
+                        case RequestParser.UDP_CHALLENGE:
+                            String challenger;
+                            String challenged;
+                            try {
+                                challenger = RequestParser.nextString(requestBuffer);
+                                challenged = RequestParser.nextString(requestBuffer);
+                            } catch (IndexOutOfBoundsException e) {
+                                sendErrorMessage(socket, RESPONSE_WRONG_FORMAT, request.getAddress(), request.getPort());
+                                continue;
+                            }
 
                             String errorMessage = null;//stores, eventually, the error message
 
@@ -77,7 +85,7 @@ class UDPServer extends Thread {
                             }
                             break;
 
-                        case CHALLENGE_OK:
+                        case RequestParser.UDP_CHALLENGE_OK:
                             //retrieve user addresses involved in the challenge
                             challengedAddress = request.getSocketAddress();
                             challengerAddress = pendingChallenges.get(challengedAddress);
@@ -105,7 +113,7 @@ class UDPServer extends Thread {
                             }
                             break;
 
-                        case CHALLENGE_REFUSED:
+                        case RequestParser.UDP_CHALLENGE_REFUSED:
                             challengedAddress = request.getSocketAddress();
                             challengerAddress = pendingChallenges.get(challengedAddress);
                             if (challengerAddress == null) {
@@ -3,26 +3,20 @@ package server;
 import commons.WQRegisterInterface;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
-import com.google.gson.reflect.TypeToken;
 
 import java.io.*;
-import java.lang.reflect.Type;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static commons.Constants.*;
 import static server.UserDBExceptions.*;
@@ -34,101 +28,209 @@ import static server.UserDBExceptions.*;
  *
  * Thread safety is assured by the use of concurrent hash map
  *
- * Contains 3 inner classes used for data representation
+ * Changes are applied in memory and then appended to a write-ahead log, a periodic snapshot
+ * stores the whole database and truncates the log
+ *
+ * Contains 4 inner classes used for data representation and one replaying the log
  */
 class UserDB {
     static UserDB instance; //stores the only instance of the DB
 
     private static ConcurrentHashMap<String, User> usersTable = new ConcurrentHashMap<>(); //key -> username, value -> User object
+    private static volatile User[] usersById = new User[0]; //i-th element is the user with i as id, replaced by a larger copy when full
+    private static volatile int userCount = 0; //ids up to here have been assigned, the array may be larger
     private static SimpleGraph relationsGraph = new SimpleGraph(); //store all the friend relationships of the user in a graph
 
     //temporarily stores all the user involved in pending challenges for fast retrieval
     private final ConcurrentHashMap<SocketAddress, ChallengeInfo> pendingChallenges = new ConcurrentHashMap<>();
 
-    private static byte[][] oldJsonFile = new byte[2][0]; //contains the latest copy of this DB stored to file
+    //incremented by every change to the users or to the graph, a snapshot stores only the changed parts
+    private static final AtomicLong tableVersion = new AtomicLong(0);
+    private static final AtomicLong graphVersion = new AtomicLong(0);
+    private static long storedTableVersion = 0; //versions contained in the latest snapshot
+    private static long storedGraphVersion = 0;
+
+    //snapshot metrics, written only by the snapshot thread
+    private static volatile long snapshots = 0;
+    private static volatile long skippedSnapshots = 0; //due but nothing changed
+    private static volatile long lastSnapshotDuration = 0; //ms
+    private static volatile long snapshotBytes = 0; //written to the snapshot files since start
+    private static volatile long intervalBytes = 0; //written to the log and the snapshots in the latest DB_SAVE_INTERVAL
 
     private static final AtomicInteger userIdGenerator;
+    private static UserLog log; //changes made after the latest snapshot
+    private static final WriteEpoch writeEpoch = new WriteEpoch(); //stamps the changes, so that a snapshot can leave out those made after it started
 
     /*
-      Init of the database, if found restores the users from file
+      Init of the database, if found restores the users from the latest snapshot and replays the log written after it
      */
     static {
-        try(BufferedReader tableReader = new BufferedReader(new FileReader(Consts.USER_TABLE_FILENAME));
-            BufferedReader graphReader = new BufferedReader(new FileReader(Consts.USER_GRAPH_FILENAME))) {
-            Gson gson = new Gson();
-            Type userTableType = new TypeToken<ConcurrentHashMap<String, User>>() {}.getType();
-            usersTable = gson.fromJson(tableReader, userTableType);
-            relationsGraph = gson.fromJson(graphReader, SimpleGraph.class);
-            instance = new UserDB();
-            instance.logoutAll();
-        } catch (FileNotFoundException e) {
-            //file doesn't exist, yet
-            instance = new UserDB();
+        instance = new UserDB();
+        try {
+            if (Files.exists(Paths.get(Consts.USER_TABLE_SNAPSHOT_FILENAME))) {
+                User[] users = UserSnapshot.readUsers(Consts.USER_TABLE_SNAPSHOT_FILENAME);
+                SimpleGraph graph = Files.exists(Paths.get(Consts.USER_GRAPH_SNAPSHOT_FILENAME))
+                        ? UserSnapshot.readGraph(Consts.USER_GRAPH_SNAPSHOT_FILENAME, users) : new SimpleGraph();
+                load(users, graph);
+            } else if (Files.exists(Paths.get(Consts.USER_TABLE_FILENAME))) {
+                //database of a previous version, the next snapshot stores it in the binary format
+                User[] users = UserSnapshot.readJsonUsers(Consts.USER_TABLE_FILENAME);
+                SimpleGraph graph = Files.exists(Paths.get(Consts.USER_GRAPH_FILENAME))
+                        ? UserSnapshot.readJsonGraph(Consts.USER_GRAPH_FILENAME, users) : new SimpleGraph();
+                load(users, graph);
+                instance.logoutAll();
+                tableVersion.incrementAndGet();
+                graphVersion.incrementAndGet();
+            }
         } catch (Exception e) {
             e.printStackTrace();
             //some error occurred, keep going
-            instance = new UserDB();
         }
 
+        try {
+            if (UserLog.replay(Consts.USER_LOG_FILENAME, new LogReplayer()) > 0) {
+                //the replayed segments are deleted by the next snapshot
+                tableVersion.incrementAndGet();
+                graphVersion.incrementAndGet();
+            }
+            log = new UserLog(Consts.USER_LOG_FILENAME, Consts.USER_LOG_FSYNC, Consts.USER_LOG_FSYNC_INTERVAL);
+        } catch (IOException e) {
+            //without the log the changes would be lost, the server can't run
+            throw new UncheckedIOException(e);
+        }
+        userIdGenerator = new AtomicInteger(userCount);
 
-
-        //Daemon thread which writes every interval the db to file
-        Thread saveThread = new Thread(() -> {
+        //Daemon thread which takes a snapshot of the db when enough time has passed or the log has grown too much
+        Thread snapshotThread = new Thread(() -> {
             try {
+                long lastSnapshot = System.currentTimeMillis();
+                long lastBytes = 0;
                 while (true){
                     Thread.sleep(Consts.DB_SAVE_INTERVAL);
-                    storeToFile();
+                    try {
+                        if (System.currentTimeMillis() - lastSnapshot >= Consts.DB_SNAPSHOT_INTERVAL
+                                || log.getSegmentSize() >= Consts.USER_LOG_SNAPSHOT_SIZE) {
+                            if (tableVersion.get() == storedTableVersion && graphVersion.get() == storedGraphVersion)
+                                skippedSnapshots++; //idle, the latest snapshot is still valid
+                            else
+                                takeSnapshot();
+                            lastSnapshot = System.currentTimeMillis();
+                        }
+                    } catch (IOException e) {
+                        //the log keeps growing until a snapshot succeeds, tried again at the next check
+                        e.printStackTrace();
+                    }
+                    long bytes = log.getBytesWritten() + snapshotBytes;
+                    intervalBytes = bytes - lastBytes;
+                    lastBytes = bytes;
                 }
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
         });
-        saveThread.setDaemon(true);
-        saveThread.start();
-
-        userIdGenerator = new AtomicInteger(usersTable.size());
-
+        snapshotThread.setDaemon(true);
+        snapshotThread.start();
     }
 
     /**
-     * Store the database to a file
-     * To prevent corrupted copies (es. program ends before write completes)
-     * it first writes to a tmp file and then attempts to rename it to the final name
+     * Makes the loaded users and graph the content of the database
+     * @param users The users by id, missing ids are null
      */
-    private static void storeToFile(){
-        Gson gson = new Gson();
-        Type userTableType = new TypeToken<ConcurrentHashMap<String, User>>() {}.getType();
-        byte[] jsonTable = gson.toJson(usersTable, userTableType).getBytes(StandardCharsets.UTF_8);
-        byte[] jsonGraph = gson.toJson(relationsGraph).getBytes(StandardCharsets.UTF_8);
-
-        if(jsonTable != oldJsonFile[0] || jsonGraph != oldJsonFile[1]) {
-            oldJsonFile[0] = jsonTable;
-            oldJsonFile[1] = jsonGraph;
-
-            try (FileChannel jsonTableFile = FileChannel.open(Paths.get(Consts.USER_TABLE_FILENAME_TMP), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
-                 FileChannel jsonGraphFile = FileChannel.open(Paths.get(Consts.USER_GRAPH_FILENAME_TMP), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
-                ByteBuffer byteBuffer = ByteBuffer.wrap(jsonTable);
-
-                while (byteBuffer.hasRemaining()) {
-                    jsonTableFile.write(byteBuffer);
-                }
-
-                //attempts to rename the file, outcome may be implementation specific (works with linux + jdk 12)
-                Files.move(Paths.get(Consts.USER_TABLE_FILENAME_TMP), Paths.get(Consts.USER_TABLE_FILENAME),
-                        StandardCopyOption.ATOMIC_MOVE , StandardCopyOption.REPLACE_EXISTING);
+    private static void load(User[] users, SimpleGraph graph) {
+        ConcurrentHashMap<String, User> table = new ConcurrentHashMap<>(Math.max(16, users.length * 4 / 3 + 1));
+        for (User user : users) {
+            if (user != null)
+                table.put(user.getName(), user);
+        }
+        //the two files of a snapshot are not written at the same time, the graph may miss the latest users
+        while (graph.size() < users.length)
+            graph.addNode();
+        usersTable = table;
+        usersById = users;
+        userCount = users.length;
+        relationsGraph = graph;
+    }
 
-                byteBuffer = ByteBuffer.wrap(jsonGraph);
+    /**
+     * Stores the user in the array by id, doubling its capacity when full as ArrayList does,
+     * so that adding n users costs O(n). Must be called by one thread at a time
+     */
+    private static void putUser(User user) {
+        User[] users = usersById;
+        int id = user.getId();
+        if (id >= users.length)
+            users = Arrays.copyOf(users, Math.max(id + 1, Math.max(16, users.length * 2)));
+        users[id] = user;
+        usersById = users; //written even if not replaced, publishes the user to the readers of the array
+        userCount = Math.max(userCount, id + 1);
+    }
 
-                while (byteBuffer.hasRemaining()) {
-                    jsonGraphFile.write(byteBuffer);
-                }
+    /**
+     * Stores the database to file and deletes the log written before it.
+     *
+     * The log is rotated first, then the current write epoch is frozen: the snapshot contains the changes of the
+     * frozen epoch and of the previous ones, all the changes logged in the old segments are among them.
+     * The writers keep going in the next epoch, their changes are left out of the snapshot and logged after the rotation
+     */
+    static synchronized void takeSnapshot() {
+        long startTime = System.nanoTime();
+        try {
+            long segment = log.rotate();
+            //read after the rotation, a change logged in the old segments has already incremented them,
+            //and before the freeze, the changes counted are in the snapshot
+            long table = tableVersion.get();
+            long graph = graphVersion.get();
+            int epoch = writeEpoch.freeze();
+            snapshotBytes += storeToFile(epoch, table != storedTableVersion, graph != storedGraphVersion);
+            log.deleteBefore(segment);
+            relationsGraph.forgetLinkEpochs(epoch);
+            storedTableVersion = table;
+            storedGraphVersion = graph;
+            snapshots++;
+            lastSnapshotDuration = (System.nanoTime() - startTime) / 1000000;
+        } catch (Exception e) {
+            //the log is kept, the next snapshot will try again
+            e.printStackTrace();
+        }
+    }
 
-                Files.move(Paths.get(Consts.USER_GRAPH_FILENAME_TMP), Paths.get(Consts.USER_GRAPH_FILENAME),
-                        StandardCopyOption.ATOMIC_MOVE , StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * Store the database to a file, as it was at the end of the given epoch
+     * @param epoch A frozen epoch
+     * @param table true to store the users
+     * @param graph true to store the relations
+     * @return The number of bytes written
+     */
+    private static long storeToFile(int epoch, boolean table, boolean graph) throws IOException {
+        //copies of the users created up to the epoch, with their score at the end of it
+        User[] users = usersById;
+        User[] usersImage = new User[users.length];
+        int imageSize = 0;
+        for (User user : users) {
+            if (user == null || user.createdEpoch > epoch)
+                continue;
+            usersImage[user.getId()] = user.copyAt(epoch);
+            imageSize = Math.max(imageSize, user.getId() + 1);
+        }
+        usersImage = Arrays.copyOf(usersImage, imageSize);
+
+        long bytes = 0;
+        if (table)
+            bytes += UserSnapshot.writeUsers(Consts.USER_TABLE_SNAPSHOT_FILENAME, usersImage);
+        if (graph)
+            bytes += UserSnapshot.writeGraph(Consts.USER_GRAPH_SNAPSHOT_FILENAME, relationsGraph.copyAt(epoch, usersImage, imageSize));
+        return bytes;
+    }
 
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Takes a last snapshot and writes to disk the changes still in memory, to be called when the server terminates
+     */
+    void close() {
+        takeSnapshot();
+        try {
+            log.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
@@ -140,14 +242,49 @@ class UserDB {
      * @throws WQRegisterInterface.InvalidPasswordException When the password is blank or null
      */
     void addUser(String username, String password) throws WQRegisterInterface.UserAlreadyRegisteredException, WQRegisterInterface.InvalidPasswordException {
-        if(usersTable.containsKey(username))
-            throw new WQRegisterInterface.UserAlreadyRegisteredException();
-        if(password == null || password.isBlank()) //isBlank() requires java 11
-            throw new WQRegisterInterface.InvalidPasswordException();
+        long record;
+        //synchronized so that ids, index, graph nodes and log records are assigned in the same order
+        synchronized (this) {
+            if(usersTable.containsKey(username))
+                throw new WQRegisterInterface.UserAlreadyRegisteredException();
+            if(password == null || password.isBlank()) //isBlank() requires java 11
+                throw new WQRegisterInterface.InvalidPasswordException();
+
+            //entered holding the lock, so that ids are increasing with the epochs
+            int epoch = writeEpoch.enter();
+            try {
+                User user = new User(username, password, userIdGenerator);
+                user.createdEpoch = epoch;
+                putUser(user);
+                usersTable.put(username, user);
+
+                relationsGraph.addNode();
+                tableVersion.incrementAndGet();
+                graphVersion.incrementAndGet();
+                record = log.logAddUser(user.getId(), username, password);
+            } finally {
+                writeEpoch.exit(epoch);
+            }
+        }
+        log.awaitDurable(record);
+    }
 
-        usersTable.put(username, new User(username, password, userIdGenerator));
+    /**
+     * @param id The id of a user
+     * @return The user with the given id, null if there is none
+     */
+    User getUser(int id) {
+        User[] users = usersById;
+        return id >= 0 && id < users.length ? users[id] : null;
+    }
 
-        relationsGraph.addNode();
+    /**
+     * @param username The name of a user
+     * @return The id of the user, -1 if there is none
+     */
+    int getUserId(String username) {
+        User user = usersTable.get(username);
+        return user == null ? -1 : user.getId();
     }
 
     /**
@@ -160,8 +297,9 @@ class UserDB {
      * @throws UserNotFoundException When the username is not to be found in the DB
      * @throws WQRegisterInterface.InvalidPasswordException When the given password doesn't match the original one
      * @throws AlreadyLoggedException When the user is already logged
+     * @return The id of the user
      */
-    void logUser(String username, String password, InetAddress address, int TCPPort, int UDPPort) throws UserNotFoundException, WQRegisterInterface.InvalidPasswordException, AlreadyLoggedException {
+    int logUser(String username, String password, InetAddress address, int TCPPort, int UDPPort) throws UserNotFoundException, WQRegisterInterface.InvalidPasswordException, AlreadyLoggedException {
         User user = usersTable.get(username);
         if(user == null)
             throw new UserNotFoundException();
@@ -171,6 +309,7 @@ class UserDB {
             throw new WQRegisterInterface.InvalidPasswordException();
 
         user.login(address, TCPPort, UDPPort);
+        return user.getId();
     }
 
     /**
@@ -182,9 +321,10 @@ class UserDB {
      * @throws UserNotFoundException When the username is not to be found in the DB
      * @throws WQRegisterInterface.InvalidPasswordException When the given password doesn't match the original one
      * @throws AlreadyLoggedException When the user is already logged
+     * @return The id of the user
      */
-    void logUser(String username, String password, InetAddress address, int TCPPort) throws UserNotFoundException, WQRegisterInterface.InvalidPasswordException, AlreadyLoggedException {
-        logUser(username, password, address, TCPPort,  UDP_PORT);
+    int logUser(String username, String password, InetAddress address, int TCPPort) throws UserNotFoundException, WQRegisterInterface.InvalidPasswordException, AlreadyLoggedException {
+        return logUser(username, password, address, TCPPort,  UDP_PORT);
     }
 
     /**
@@ -231,10 +371,19 @@ class UserDB {
             throw new UserNotFoundException();
         if(!user1.isLogged(address, TCPPort))
             throw new NotLoggedException();
-        if (relationsGraph.nodesAreLinked(user1, user2))
+        if (relationsGraph.nodesAreLinked(user1.getId(), user2.getId()))
             throw new AlreadyFriendsException();
 
-        relationsGraph.addArch(user1, user2);
+        long record;
+        int epoch = writeEpoch.enter();
+        try {
+            relationsGraph.addArch(user1.getId(), user2.getId(), epoch);
+            graphVersion.incrementAndGet();
+            record = log.logFriendship(user1.getId(), user2.getId());
+        } finally {
+            writeEpoch.exit(epoch);
+        }
+        log.awaitDurable(record);
     }
 
     /**
@@ -255,10 +404,10 @@ class UserDB {
             throw new NotLoggedException();
 
 
-        LinkedList<User> friends = relationsGraph.getLinkedNodes(friendlyUser);
+        int[] friends = relationsGraph.getLinkedNodes(friendlyUser.getId());
         JsonArray userNames = new JsonArray();
-        for(User user: friends){
-            userNames.add(user.getName());
+        for(int friend: friends){
+            userNames.add(getUser(friend).getName());
         }
         return userNames.toString();
     }
@@ -293,14 +442,20 @@ class UserDB {
             throw new UserNotFoundException();
         if(!user.isLogged(address, TCPPort))
             throw new NotLoggedException();
-        LinkedList<User> friends = relationsGraph.getLinkedNodes(user);
-        friends.add(user);
-        User[] rankingList = friends.toArray(new User[0]); //get array for faster access
-        Arrays.sort(rankingList, (o1, o2) -> o2.getScore() - o1.getScore());//sort by the score
+        int[] friends = relationsGraph.getLinkedNodes(user.getId());
+        User[] rankingList = new User[friends.length + 1];
+        int[] scores = new int[rankingList.length]; //read once, the live scores may change while sorting
+        Integer[] order = new Integer[rankingList.length];
+        for(int i = 0; i < rankingList.length; i++){
+            rankingList[i] = i < friends.length ? getUser(friends[i]) : user;
+            scores[i] = rankingList[i].getScore();
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> scores[i2] - scores[i1]);//sort by the score
         String[] ranking = new String[rankingList.length]; //ranking with name and score
 
         for(int i = 0; i < ranking.length; i++){
-            ranking[i] = rankingList[i].getName() + " " + rankingList[i].getScore();
+            ranking[i] = rankingList[order[i]].getName() + " " + scores[order[i]];
         }
         Gson gson = new Gson();
         return gson.toJson(ranking);
@@ -309,11 +464,36 @@ class UserDB {
     /**
      * Updates the user score by the given amount
      */
-    void updateScore(String name, int amount, int matchId) {
-        User user = usersTable.get(name);
+    void updateScore(int userId, int amount, int matchId) {
+        updateScore(userId, amount, matchId, true);
+    }
+
+    /**
+     * Updates the user score by the given amount
+     * @param awaitDurable false to return without waiting for the record to be on disk, for the timer thread
+     *                     which must not stall the deadlines of the other challenges; the record is still logged
+     *                     and reaches the disk with the next group commit
+     */
+    void updateScore(int userId, int amount, int matchId, boolean awaitDurable) {
+        User user = getUser(userId);
         if(user == null)
             return;
-        user.updateScore(amount, matchId);
+        long record;
+        //the record is logged holding the lock of the user, so the log keeps the order of his scores
+        synchronized (user) {
+            //entered holding the lock, so that the epochs of the changes to a user are increasing
+            int epoch = writeEpoch.enter();
+            try {
+                if (!user.updateScore(amount, matchId, epoch))
+                    return;
+                tableVersion.incrementAndGet();
+                record = log.logScore(userId, user.getScore());
+            } finally {
+                writeEpoch.exit(epoch);
+            }
+        }
+        if (awaitDurable)
+            log.awaitDurable(record);
     }
 
     /**
@@ -335,7 +515,7 @@ class UserDB {
             throw new UserNotFoundException();
         }
 
-        if(relationsGraph.nodesAreNotLinked(challenger, challenged))
+        if(relationsGraph.nodesAreNotLinked(challenger.getId(), challenged.getId()))
             throw new NotFriendsException();
 
         if(!challenger.isLogged(challengerPort) || !challenged.isLogged())
@@ -347,8 +527,8 @@ class UserDB {
 
         DatagramPacket requestPacket = new DatagramPacket(challengeRequest, challengeRequest.length, challenged.getAddress(), challenged.getUDPPort());
 
-        pendingChallenges.put(requestPacket.getSocketAddress(), new ChallengeInfo(challengedName, System.currentTimeMillis()));
-        pendingChallenges.put(new InetSocketAddress(challenger.getAddress(), challenger.getUDPPort()), new ChallengeInfo(challengerName, System.currentTimeMillis()));
+        pendingChallenges.put(requestPacket.getSocketAddress(), new ChallengeInfo(challenged.getId(), System.currentTimeMillis()));
+        pendingChallenges.put(new InetSocketAddress(challenger.getAddress(), challenger.getUDPPort()), new ChallengeInfo(challenger.getId(), System.currentTimeMillis()));
 
         return requestPacket;
     }
@@ -376,9 +556,9 @@ class UserDB {
             throw new ChallengeRequestTimeoutException();
         }
 
-        int matchId = ChallengeHandler.instance.createChallenge(challenger.name, challenged.name);
-        usersTable.get(challenged.name).addMatch(matchId);
-        usersTable.get(challenger.name).addMatch(matchId);
+        int matchId = ChallengeHandler.instance.createChallenge(challenger.userId, challenged.userId);
+        getUser(challenged.userId).addMatch(matchId);
+        getUser(challenger.userId).addMatch(matchId);
 
         return (RESPONSE_OK + " " + matchId).getBytes(StandardCharsets.UTF_8);
     }
@@ -407,22 +587,32 @@ class UserDB {
     static class User{
         private final String name;
         private final String password;
-        private InetAddress loginAddress = null;
-        private int TCPPort;
-        private int UDPPort;
+        //session fields are transient, they are not stored in the snapshots
+        private transient InetAddress loginAddress = null;
+        private transient int TCPPort;
+        private transient int UDPPort;
         private int score = 0;
         private final int id;
 
-        private int latestMatchId = 0; //store the id of the last match to check it when updating the score
+        private transient int latestMatchId = 0; //store the id of the last match to check it when updating the score
+
+        //versions for the snapshots, see WriteEpoch
+        private transient int createdEpoch = 0;
+        private transient int scoreEpoch = 0; //epoch of the latest change of the score
+        private transient int previousScore = 0; //score at the end of the epoch before scoreEpoch
 
         //counter is shared between multiple threads and instances
 //        private static final AtomicInteger idCounter = new AtomicInteger(); //every user has its id assigned at constructor time
 
 
         User(String name, String password, AtomicInteger userIdGenerator){
+            this(name, password, userIdGenerator.getAndIncrement());
+        }
+
+        User(String name, String password, int id){
             this.name = name;
             this.password = password;
-            id = userIdGenerator.getAndIncrement();
+            this.id = id;
         }
 
         int getId() {
@@ -431,13 +621,33 @@ class UserDB {
 
         /**
          * Updates the score of the user, retrieving the score of the pending matches
+         * @param epoch The write epoch of the change
+         * @return false if the match is not the latest one of the user and the score didn't change
          */
-        synchronized void updateScore(int amount, int matchId){
+        synchronized boolean updateScore(int amount, int matchId, int epoch){
             if(matchId != latestMatchId)
-                return;
+                return false;
+            if(epoch != scoreEpoch) {
+                previousScore = score;
+                scoreEpoch = epoch;
+            }
             score += amount;
             if(score < 0)
                 score = 0;
+            return true;
+        }
+
+        synchronized void setScore(int score) {
+            this.score = score;
+        }
+
+        /**
+         * @return A copy of the user with the score he had at the end of the given epoch
+         */
+        synchronized User copyAt(int epoch) {
+            User copy = new User(name, password, id);
+            copy.score = scoreEpoch > epoch ? previousScore : score;
+            return copy;
         }
 
         void addMatch(int matchId) {
@@ -453,6 +663,10 @@ class UserDB {
             return name;
         }
 
+        String getPassword() {
+            return password;
+        }
+
         InetAddress getAddress() {
             return loginAddress;
         }
@@ -508,43 +722,163 @@ class UserDB {
     }
 
     /**
-     * A non-oriented graph implemented with an adjacencyList
-     * requires that user has an unique id to be used to access array location
+     * A non-oriented graph implemented with an adjacencyList of user ids
+     * requires that user has an unique id to be used to access array location,
+     * the users are looked up by id in the database so the graph never holds copies of them
      *
-     * Thread safety assured by the use of vector
+     * Thread safety assured by the use of vector and of synchronized lists
      */
     static class SimpleGraph{
-        Vector<LinkedList<User>> adjacencyList = new Vector<>(); //i-sm element is the user with i as id
+        private final Vector<IdList> adjacencyList = new Vector<>(); //i-sm element holds the ids of the friends of the user with i as id
+        //write epoch of the arches not yet in a snapshot, by pair of ids, the others are older than any snapshot in progress
+        private final ConcurrentHashMap<Long, Integer> linkEpochs = new ConcurrentHashMap<>();
 
         //add a node to the graph
         void addNode(){
-            adjacencyList.add(new LinkedList<>());
+            adjacencyList.add(new IdList());
+        }
+
+        /**
+         * @return The number of nodes
+         */
+        int size() {
+            return adjacencyList.size();
+        }
+
+        void addArch(int id1, int id2, int epoch){
+            linkEpochs.put(linkKey(id1, id2), epoch); //before the arch becomes visible to a snapshot
+            addArch(id1, id2);
+        }
+
+        /**
+         * Adds an arch older than any snapshot in progress
+         */
+        void addArch(int id1, int id2){
+            adjacencyList.get(id1).add(id2);
+            adjacencyList.get(id2).add(id1);
+        }
+
+        private static long linkKey(int id1, int id2) {
+            return (long) Math.min(id1, id2) << 32 | Math.max(id1, id2);
         }
 
-        void addArch(User user1, User user2){
-            adjacencyList.get(user1.getId()).add(user2);
-            adjacencyList.get(user2.getId()).add(user1);
+        /**
+         * @param epoch A frozen epoch
+         * @param users The users at the end of the epoch, by id
+         * @param size The number of nodes of the copy
+         * @return A copy of the graph at the end of the epoch
+         */
+        SimpleGraph copyAt(int epoch, User[] users, int size) {
+            SimpleGraph copy = new SimpleGraph();
+            for (int id = 0; id < size; id++)
+                copy.addNode();
+            for (int id = 0; id < size; id++) {
+                if (users[id] == null)
+                    continue;
+                for (int friend : getLinkedNodes(id)) {
+                    Integer linkEpoch = linkEpochs.get(linkKey(id, friend));
+                    if ((linkEpoch == null || linkEpoch <= epoch) && friend < size && users[friend] != null)
+                        copy.adjacencyList.get(id).add(friend);
+                }
+            }
+            return copy;
+        }
+
+        /**
+         * Forgets the epochs of the arches contained in the snapshot of the given epoch
+         */
+        void forgetLinkEpochs(int epoch) {
+            linkEpochs.values().removeIf(linkEpoch -> linkEpoch <= epoch);
         }
 
         /**
          * @return true if the two users are linked
          */
-        boolean nodesAreLinked(User user1, User user2){
-            return adjacencyList.get(user1.getId()).contains(user2);
+        boolean nodesAreLinked(int id1, int id2){
+            return adjacencyList.get(id1).contains(id2);
         }
 
         /**
          * @return true if the two user are NOT linked
          */
-        boolean nodesAreNotLinked(User user1, User user2){
-            return !nodesAreLinked(user1, user2);
+        boolean nodesAreNotLinked(int id1, int id2){
+            return !nodesAreLinked(id1, id2);
         }
 
         /**
-         * @return All the nodes linked to user
+         * @return The ids of all the nodes linked to the given one
          */
-        LinkedList<User> getLinkedNodes(User user){
-            return new LinkedList<>(adjacencyList.get(user.getId()));
+        int[] getLinkedNodes(int id){
+            return adjacencyList.get(id).toArray();
+        }
+    }
+
+    /**
+     * A growable list of user ids, empty lists share the same array
+     *
+     * Thread safety is assured by synchronized methods
+     */
+    private static class IdList {
+        private static final int[] EMPTY = new int[0];
+
+        private int[] ids = EMPTY;
+        private int size = 0;
+
+        synchronized void add(int id) {
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+            ids[size++] = id;
+        }
+
+        synchronized boolean contains(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id)
+                    return true;
+            }
+            return false;
+        }
+
+        synchronized int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "User DB: " + userCount + " users, " + snapshots + " snapshots (" + skippedSnapshots + " skipped, nothing changed), "
+                + "last snapshot " + lastSnapshotDuration + " ms, " + intervalBytes + " bytes written in the last "
+                + Consts.DB_SAVE_INTERVAL + " ms (log + snapshots)";
+    }
+
+    /**
+     * Applies the records of the log to the database loaded from the snapshot.
+     * A record may already be contained in the snapshot, so all the changes are applied only if missing
+     */
+    private static class LogReplayer implements UserLog.Replayer {
+        @Override
+        public void addUser(int id, String name, String password) {
+            if (instance.getUser(id) != null)
+                return;
+            User user = new User(name, password, id);
+            putUser(user); //doubles the array, a long log is replayed in linear time
+            usersTable.put(name, user);
+            while (relationsGraph.size() <= id)
+                relationsGraph.addNode();
+        }
+
+        @Override
+        public void addFriendship(int id1, int id2) {
+            User user1 = instance.getUser(id1);
+            User user2 = instance.getUser(id2);
+            if (user1 != null && user2 != null && relationsGraph.nodesAreNotLinked(id1, id2))
+                relationsGraph.addArch(id1, id2);
+        }
+
+        @Override
+        public void updateScore(int id, int score) {
+            User user = instance.getUser(id);
+            if (user != null)
+                user.setScore(score);
         }
     }
 
@@ -552,11 +886,11 @@ class UserDB {
      * data class used to store info of pending challenges
      */
     private static class ChallengeInfo{
-        private final String name;
+        private final int userId;
         private final Long timestamp;
 
-        private ChallengeInfo(String name, Long timestamp) {
-            this.name = name;
+        private ChallengeInfo(int userId, Long timestamp) {
+            this.userId = userId;
             this.timestamp = timestamp;
         }
     }
@@ -0,0 +1,411 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of the mutations of the user database
+ *
+ * Records are appended to an in-memory buffer and written to the current segment by a background thread,
+ * all the records appended while the previous write was in progress go to disk with a single write and fsync
+ * (group commit). The fsync policy decides when the data is forced to disk: after every write, with the callers
+ * waiting for it, at a fixed interval, or never (left to the OS).
+ *
+ * The log is divided in numbered segments: a snapshot of the database rotates the log to a new segment,
+ * once the snapshot is stored the segments before it can be deleted.
+ * Records hold absolute values, so replaying a record already contained in the snapshot is harmless
+ *
+ * Record format: payload length (4 bytes), CRC32 of the payload (4 bytes), payload.
+ * A record that is incomplete or doesn't match its checksum ends its segment (torn write after a crash),
+ * the server writes to a new segment after a restart
+ */
+class UserLog implements AutoCloseable {
+
+    static final byte ADD_USER = 1, ADD_FRIENDSHIP = 2, UPDATE_SCORE = 3; //record types
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final String filename; //segments are named filename.number
+    private final String fsyncPolicy;
+    private final long fsyncInterval; //in ms, for FSYNC_INTERVAL
+
+    //appended records not yet written, swapped with writeBuffer by the writer thread
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition recordsAppended = appendLock.newCondition();
+    private final Condition recordsWritten = appendLock.newCondition();
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private long appendedCount = 0; //sequence number of the last appended record
+    private long durableCount = 0; //sequence number of the last record written (and forced, when the policy asks to)
+    private boolean closed = false;
+
+    //held while writing to the channel, always taken before appendLock
+    private final ReentrantLock fileLock = new ReentrantLock();
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+    private FileChannel channel;
+    private long segment; //number of the current segment
+    private long lastForce = System.currentTimeMillis();
+    private boolean forced = true; //false if there is data written and not forced
+    private volatile long bytesWritten = 0; //since the log was opened
+
+    private final Thread writer;
+
+    /**
+     * Opens a new segment after the existing ones and starts the writer thread
+     * @param filename The base name of the segments
+     * @param fsyncPolicy One of Consts.FSYNC_ALWAYS, Consts.FSYNC_INTERVAL, Consts.FSYNC_NEVER
+     * @param fsyncInterval The interval between fsyncs in ms, for FSYNC_INTERVAL
+     */
+    UserLog(String filename, String fsyncPolicy, long fsyncInterval) throws IOException {
+        this.filename = filename;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncInterval = fsyncInterval;
+        ArrayList<Long> segments = listSegments(filename);
+        segment = segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1; //a torn segment is never appended to
+        channel = openSegment(segment);
+
+        writer = new Thread(this::write, "UserLog");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(segmentPath(filename, number), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static Path segmentPath(String filename, long number) {
+        return Paths.get(filename + "." + number);
+    }
+
+    /**
+     * @return The numbers of the existing segments, in increasing order
+     */
+    private static ArrayList<Long> listSegments(String filename) throws IOException {
+        Path base = Paths.get(filename).toAbsolutePath();
+        String prefix = base.getFileName() + ".";
+        ArrayList<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> directory = Files.newDirectoryStream(base.getParent(), prefix + "*")) {
+            for (Path path : directory) {
+                try {
+                    segments.add(Long.parseLong(path.getFileName().toString().substring(prefix.length())));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        segments.sort(Long::compare);
+        return segments;
+    }
+
+    /**
+     * Logs the registration of a user
+     * @return The sequence number of the record, to be used with awaitDurable()
+     */
+    long logAddUser(int id, String name, String password) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+        appendLock.lock();
+        try {
+            int start = beginRecord(1 + Integer.BYTES + 2 * Short.BYTES + nameBytes.length + passwordBytes.length);
+            pending.put(ADD_USER).putInt(id);
+            pending.putShort((short) nameBytes.length).put(nameBytes);
+            pending.putShort((short) passwordBytes.length).put(passwordBytes);
+            return endRecord(start);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Logs a new friendship between two users
+     * @return The sequence number of the record, to be used with awaitDurable()
+     */
+    long logFriendship(int id1, int id2) {
+        appendLock.lock();
+        try {
+            int start = beginRecord(1 + 2 * Integer.BYTES);
+            pending.put(ADD_FRIENDSHIP).putInt(id1).putInt(id2);
+            return endRecord(start);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Logs the new score of a user
+     * @param score The score after the update, not the variation
+     * @return The sequence number of the record, to be used with awaitDurable()
+     */
+    long logScore(int id, int score) {
+        appendLock.lock();
+        try {
+            int start = beginRecord(1 + 2 * Integer.BYTES);
+            pending.put(UPDATE_SCORE).putInt(id).putInt(score);
+            return endRecord(start);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Makes room for a record and leaves space for its header, to be called holding appendLock
+     * @return The position of the record
+     */
+    private int beginRecord(int payloadSize) {
+        if (pending.remaining() < HEADER_SIZE + payloadSize) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + HEADER_SIZE + payloadSize));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        int start = pending.position();
+        pending.position(start + HEADER_SIZE);
+        return start;
+    }
+
+    /**
+     * Fills the header of the record and wakes up the writer, to be called holding appendLock
+     * @return The sequence number of the record
+     */
+    private long endRecord(int start) {
+        int payloadSize = pending.position() - start - HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(pending.array(), start + HEADER_SIZE, payloadSize);
+        pending.putInt(start, payloadSize);
+        pending.putInt(start + Integer.BYTES, (int) crc.getValue());
+        recordsAppended.signal();
+        return ++appendedCount;
+    }
+
+    /**
+     * With FSYNC_ALWAYS waits until the given record is on disk, otherwise returns immediately.
+     * Must not be called holding a lock needed by other writers
+     * @param sequence The sequence number returned when the record was logged
+     */
+    void awaitDurable(long sequence) {
+        if (!fsyncPolicy.equals(Consts.FSYNC_ALWAYS))
+            return;
+        appendLock.lock();
+        try {
+            while (durableCount < sequence && !closed)
+                recordsWritten.awaitUninterruptibly();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the pending records to disk and starts a new segment,
+     * all the records logged before this call are in the segments before the returned one
+     * @return The number of the new segment
+     */
+    long rotate() throws IOException {
+        fileLock.lock();
+        try {
+            flush(true);
+            channel.close();
+            segment++;
+            channel = openSegment(segment);
+            return segment;
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the segments before the given one, once their records are in a stored snapshot
+     */
+    void deleteBefore(long segment) throws IOException {
+        for (long number : listSegments(filename)) {
+            if (number < segment)
+                Files.deleteIfExists(segmentPath(filename, number));
+        }
+    }
+
+    /**
+     * @return The size in bytes of the current segment
+     */
+    long getSegmentSize() throws IOException {
+        fileLock.lock();
+        try {
+            return channel.size();
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of bytes written to the log since it was opened
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void write() {
+        while (true) {
+            appendLock.lock();
+            try {
+                while (pending.position() == 0 && !closed) {
+                    if (!recordsAppended.await(fsyncInterval, TimeUnit.MILLISECONDS))
+                        break; //time to check if a fsync is due
+                }
+                if (closed)
+                    return;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                appendLock.unlock();
+            }
+
+            fileLock.lock();
+            try {
+                flush(fsyncPolicy.equals(Consts.FSYNC_ALWAYS));
+                if (fsyncPolicy.equals(Consts.FSYNC_INTERVAL) && !forced && System.currentTimeMillis() - lastForce >= fsyncInterval)
+                    force();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                fileLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes all the pending records to the current segment, to be called holding fileLock
+     * @param force true to force them to disk
+     */
+    private void flush(boolean force) throws IOException {
+        long sequence;
+        appendLock.lock();
+        try {
+            ByteBuffer appended = pending;
+            pending = writeBuffer;
+            writeBuffer = appended;
+            sequence = appendedCount;
+        } finally {
+            appendLock.unlock();
+        }
+
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining())
+            channel.write(writeBuffer);
+        bytesWritten += writeBuffer.limit();
+        if (writeBuffer.limit() > 0)
+            forced = false;
+        writeBuffer.clear();
+        if (force && !forced)
+            force();
+
+        appendLock.lock();
+        try {
+            durableCount = sequence;
+            recordsWritten.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void force() throws IOException {
+        channel.force(false);
+        forced = true;
+        lastForce = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes and forces the pending records, then stops the writer
+     */
+    @Override
+    public void close() throws IOException {
+        fileLock.lock();
+        try {
+            flush(!fsyncPolicy.equals(Consts.FSYNC_NEVER));
+            channel.close();
+        } finally {
+            fileLock.unlock();
+        }
+        appendLock.lock();
+        try {
+            closed = true;
+            recordsAppended.signalAll();
+            recordsWritten.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Receives the records read from the log
+     */
+    interface Replayer {
+        void addUser(int id, String name, String password);
+        void addFriendship(int id1, int id2);
+        void updateScore(int id, int score);
+    }
+
+    /**
+     * Reads all the segments of a log in order, an invalid record ends only its own segment
+     * @param filename The base name of the segments
+     * @param replayer Receives the records
+     * @return The number of records replayed
+     */
+    static long replay(String filename, Replayer replayer) throws IOException {
+        long records = 0;
+        for (long number : listSegments(filename))
+            records += replaySegment(ByteBuffer.wrap(Files.readAllBytes(segmentPath(filename, number))), replayer);
+        return records;
+    }
+
+    /**
+     * Reads the records of a segment, the first invalid record ends the segment:
+     * it was being written when the server stopped, and the following segments were opened after a restart
+     * @return The number of records replayed
+     */
+    private static long replaySegment(ByteBuffer data, Replayer replayer) {
+        long records = 0;
+        while (data.remaining() >= HEADER_SIZE) {
+            int payloadSize = data.getInt();
+            int checksum = data.getInt();
+            if (payloadSize <= 0 || payloadSize > data.remaining())
+                return records; //torn record
+            CRC32 crc = new CRC32();
+            crc.update(data.array(), data.position(), payloadSize);
+            if ((int) crc.getValue() != checksum)
+                return records;
+
+            ByteBuffer payload = data.slice();
+            payload.limit(payloadSize);
+            data.position(data.position() + payloadSize);
+            switch (payload.get()) {
+                case ADD_USER:
+                    int id = payload.getInt();
+                    String name = readString(payload);
+                    replayer.addUser(id, name, readString(payload));
+                    break;
+                case ADD_FRIENDSHIP:
+                    replayer.addFriendship(payload.getInt(), payload.getInt());
+                    break;
+                case UPDATE_SCORE:
+                    replayer.updateScore(payload.getInt(), payload.getInt());
+                    break;
+                default:
+                    return records; //unknown record, the rest of the segment cannot be trusted
+            }
+            records++;
+        }
+        return records;
+    }
+
+    private static String readString(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.getShort() & 0xFFFF];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,338 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import server.UserDB.SimpleGraph;
+import server.UserDB.User;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Snapshot of the user database, stored in two binary files written and loaded independently: users and friendships
+ *
+ * Users file format, all integers are big endian:
+ * header: magic, version, number of ids, size of the string table (4 bytes each)
+ * records: one for each id, offset in the string table of the name and of the password (4 bytes each),
+ * length of the name and of the password (2 bytes each), score (4 bytes). The name offset of a missing id is -1
+ * string table: the UTF-8 bytes of the names and the passwords
+ * trailer: CRC32 of the rest of the file
+ *
+ * Friendships file format:
+ * header: magic, version, number of nodes, number of friendships (4 bytes each)
+ * friendships: the ids of the two users (4 bytes each), each friendship is stored once
+ * trailer: CRC32 of the rest of the file
+ *
+ * The loaders map the file, check it and build the in-memory structures in one pass.
+ * The JSON format of the previous versions can still be read, and written for inspection
+ */
+class UserSnapshot {
+
+    private static final int USERS_MAGIC = 0x57515553; //"WQUS"
+    private static final int GRAPH_MAGIC = 0x57515547; //"WQUG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+    private static final int RECORD_SIZE = 3 * Integer.BYTES + 2 * Short.BYTES;
+    private static final int MAX_STRING_LENGTH = 0xFFFF; //in bytes, the length of a string is stored in 2 bytes
+    private static final String JSON_ADJACENCY_LIST = "adjacencyList", JSON_ID = "id"; //names in the JSON graph
+
+    /**
+     * Maps a file and checks its header and checksum
+     * @return The content of the file, without the trailer
+     * @throws IOException If the file cannot be read or has not a valid format
+     */
+    private static MappedByteBuffer map(String filename, int magic) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename))) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); //mapping stays valid after close
+        }
+        if (data.capacity() < HEADER_SIZE + Integer.BYTES || data.getInt(0) != magic || data.getInt(4) != VERSION)
+            throw new IOException(filename + " is not a user database snapshot");
+
+        int length = data.capacity() - Integer.BYTES;
+        CRC32 crc = new CRC32();
+        ByteBuffer content = data.duplicate();
+        content.limit(length);
+        crc.update(content);
+        if ((int) crc.getValue() != data.getInt(length))
+            throw new IOException(filename + " is corrupted");
+        data.limit(length);
+        return data;
+    }
+
+    /**
+     * Loads the users
+     * @return The users by id, missing ids are null
+     * @throws IOException If the file cannot be read or has not a valid format
+     */
+    static User[] readUsers(String filename) throws IOException {
+        MappedByteBuffer data = map(filename, USERS_MAGIC);
+        int count = data.getInt(8);
+        if (count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE + data.getInt(12) != data.limit())
+            throw new IOException(filename + " is not a user database snapshot");
+        int stringsStart = HEADER_SIZE + count * RECORD_SIZE;
+
+        User[] users = new User[count];
+        byte[] buffer = new byte[MAX_STRING_LENGTH];
+        for (int id = 0; id < count; id++) {
+            int record = HEADER_SIZE + id * RECORD_SIZE;
+            int nameOffset = data.getInt(record);
+            if (nameOffset < 0)
+                continue;
+            int passwordOffset = data.getInt(record + 4);
+            int nameLength = data.getShort(record + 8) & 0xFFFF;
+            int passwordLength = data.getShort(record + 10) & 0xFFFF;
+
+            data.position(stringsStart + nameOffset);
+            data.get(buffer, 0, nameLength);
+            String name = new String(buffer, 0, nameLength, StandardCharsets.UTF_8);
+            data.position(stringsStart + passwordOffset);
+            data.get(buffer, 0, passwordLength);
+            String password = new String(buffer, 0, passwordLength, StandardCharsets.UTF_8);
+
+            users[id] = new User(name, password, id);
+            users[id].setScore(data.getInt(record + 12));
+        }
+        return users;
+    }
+
+    /**
+     * Loads the friendships
+     * @param users The users by id, friendships with a missing user are ignored
+     * @return The graph of the friendships, with a node for each user
+     * @throws IOException If the file cannot be read or has not a valid format
+     */
+    static SimpleGraph readGraph(String filename, User[] users) throws IOException {
+        MappedByteBuffer data = map(filename, GRAPH_MAGIC);
+        int count = data.getInt(12);
+        if (count < 0 || HEADER_SIZE + (long) count * 2 * Integer.BYTES != data.limit())
+            throw new IOException(filename + " is not a user database snapshot");
+
+        SimpleGraph graph = new SimpleGraph();
+        for (int i = 0; i < users.length; i++)
+            graph.addNode();
+        data.position(HEADER_SIZE);
+        for (int i = 0; i < count; i++) {
+            int id1 = data.getInt();
+            int id2 = data.getInt();
+            if (id1 >= 0 && id1 < users.length && id2 >= 0 && id2 < users.length && users[id1] != null && users[id2] != null)
+                graph.addArch(id1, id2);
+        }
+        return graph;
+    }
+
+    /**
+     * Stores the users, the file is written to a tmp file, forced to disk and renamed
+     * @param users The users by id, missing ids are null
+     * @return The number of bytes written
+     */
+    static long writeUsers(String filename, User[] users) throws IOException {
+        byte[][] names = new byte[users.length][];
+        byte[][] passwords = new byte[users.length][];
+        int stringsSize = 0;
+        for (int id = 0; id < users.length; id++) {
+            if (users[id] == null)
+                continue;
+            names[id] = users[id].getName().getBytes(StandardCharsets.UTF_8);
+            passwords[id] = users[id].getPassword().getBytes(StandardCharsets.UTF_8);
+            if (names[id].length > MAX_STRING_LENGTH || passwords[id].length > MAX_STRING_LENGTH)
+                throw new IOException("User " + id + " has a name or password too long to be stored");
+            stringsSize += names[id].length + passwords[id].length;
+        }
+
+        int stringTableSize = stringsSize;
+        return write(filename, output -> {
+            output.writeInt(USERS_MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(users.length);
+            output.writeInt(stringTableSize);
+
+            int offset = 0;
+            for (int id = 0; id < users.length; id++) {
+                if (users[id] == null) {
+                    output.writeInt(-1);
+                    output.writeInt(-1);
+                    output.writeShort(0);
+                    output.writeShort(0);
+                    output.writeInt(0);
+                    continue;
+                }
+                output.writeInt(offset);
+                output.writeInt(offset + names[id].length);
+                output.writeShort(names[id].length);
+                output.writeShort(passwords[id].length);
+                output.writeInt(users[id].getScore());
+                offset += names[id].length + passwords[id].length;
+            }
+
+            for (int id = 0; id < users.length; id++) {
+                if (users[id] != null) {
+                    output.write(names[id]);
+                    output.write(passwords[id]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stores the friendships, the file is written to a tmp file, forced to disk and renamed
+     * @return The number of bytes written
+     */
+    static long writeGraph(String filename, SimpleGraph graph) throws IOException {
+        int nodes = graph.size();
+        int count = 0;
+        for (int id = 0; id < nodes; id++) {
+            for (int friend : graph.getLinkedNodes(id)) {
+                if (id < friend)
+                    count++;
+            }
+        }
+
+        int friendships = count;
+        return write(filename, output -> {
+            output.writeInt(GRAPH_MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(nodes);
+            output.writeInt(friendships);
+            for (int id = 0; id < nodes; id++) {
+                for (int friend : graph.getLinkedNodes(id)) {
+                    if (id < friend) {
+                        output.writeInt(id);
+                        output.writeInt(friend);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the content of a binary file
+     */
+    private interface Content {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    /**
+     * Writes a file followed by its checksum to a tmp file, forces it to disk and renames it,
+     * so that a crash never leaves a partial snapshot
+     * @return The size of the file
+     */
+    private static long write(String filename, Content content) throws IOException {
+        Path file = Paths.get(filename);
+        Path tmpFile = Paths.get(filename + ".tmp");
+        long size;
+        try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            DataOutputStream output = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)), crc));
+            content.write(output);
+            output.writeInt((int) crc.getValue());
+            output.flush();
+            channel.force(false); //the log before the snapshot is going to be deleted
+            size = channel.size();
+        }
+        Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return size;
+    }
+
+    /**
+     * Loads the users from the JSON format
+     * @return The users by id, missing ids are null
+     */
+    static User[] readJsonUsers(String filename) throws IOException {
+        HashMap<String, User> usersTable;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filename))) {
+            Type userTableType = new TypeToken<HashMap<String, User>>() {}.getType();
+            usersTable = new Gson().fromJson(reader, userTableType);
+        }
+        int size = 0;
+        for (User user : usersTable.values())
+            size = Math.max(size, user.getId() + 1);
+        User[] users = new User[size];
+        usersTable.forEach((name, user) -> users[user.getId()] = user);
+        return users;
+    }
+
+    /**
+     * Loads the friendships from the JSON format: an object with the list of the friends of each id,
+     * the friends are ids or, in the files of the previous versions, copies of the users
+     * @param users The users by id, friendships with a missing user are ignored
+     * @return The graph of the friendships, with a node for each user
+     */
+    static SimpleGraph readJsonGraph(String filename, User[] users) throws IOException {
+        JsonArray adjacencyList;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filename))) {
+            adjacencyList = JsonParser.parseReader(reader).getAsJsonObject().getAsJsonArray(JSON_ADJACENCY_LIST);
+        }
+        SimpleGraph graph = new SimpleGraph();
+        for (int i = 0; i < users.length; i++)
+            graph.addNode();
+        for (int id = 0; id < adjacencyList.size() && id < users.length; id++) {
+            for (JsonElement element : adjacencyList.get(id).getAsJsonArray()) {
+                int friend = element.isJsonObject() ? element.getAsJsonObject().get(JSON_ID).getAsInt() : element.getAsInt();
+                if (id < friend && friend < users.length && users[id] != null && users[friend] != null)
+                    graph.addArch(id, friend);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Stores the users in the JSON format
+     * @param users The users by id, missing ids are null
+     * @return The number of bytes written
+     */
+    static long writeJsonUsers(String filename, User[] users) throws IOException {
+        HashMap<String, User> usersTable = new HashMap<>();
+        for (User user : users) {
+            if (user != null)
+                usersTable.put(user.getName(), user);
+        }
+        Type userTableType = new TypeToken<HashMap<String, User>>() {}.getType();
+        byte[] json = new Gson().toJson(usersTable, userTableType).getBytes(StandardCharsets.UTF_8);
+        return write(filename, json);
+    }
+
+    /**
+     * Stores the friendships in the JSON format, as the ids of the friends of each id
+     * @return The number of bytes written
+     */
+    static long writeJsonGraph(String filename, SimpleGraph graph) throws IOException {
+        JsonArray adjacencyList = new JsonArray();
+        for (int id = 0; id < graph.size(); id++) {
+            JsonArray friends = new JsonArray();
+            for (int friend : graph.getLinkedNodes(id))
+                friends.add(friend);
+            adjacencyList.add(friends);
+        }
+        JsonObject stored = new JsonObject();
+        stored.add(JSON_ADJACENCY_LIST, adjacencyList);
+        return write(filename, stored.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long write(String filename, byte[] json) throws IOException {
+        Path tmpFile = Paths.get(filename + ".tmp");
+        Files.write(tmpFile, json);
+        Files.move(tmpFile, Paths.get(filename), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return json.length;
+    }
+}
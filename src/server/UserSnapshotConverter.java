@@ -0,0 +1,56 @@
+package server;
+
+import server.UserDB.SimpleGraph;
+import server.UserDB.User;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Offline tool that converts the snapshot of the user database between the binary format and the JSON one
+ *
+ * Arguments: 'import' to convert user_table.json and user_graph.json to the binary files,
+ * 'export' to convert the binary files to JSON, and optionally the directory of the database (the current one).
+ * The log is not converted: the server takes a last snapshot when it terminates, so it must be stopped before
+ *
+ * es. java server.UserSnapshotConverter export /srv/wordquizzle
+ */
+public class UserSnapshotConverter {
+
+    private static final String IMPORT = "import", EXPORT = "export";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || !(args[0].equals(IMPORT) || args[0].equals(EXPORT))) {
+            System.err.println("Usage: UserSnapshotConverter <import | export> [database directory]");
+            return;
+        }
+        Path directory = Paths.get(args.length > 1 ? args[1] : ".");
+        String binaryTable = directory.resolve(Consts.USER_TABLE_SNAPSHOT_FILENAME).toString();
+        String binaryGraph = directory.resolve(Consts.USER_GRAPH_SNAPSHOT_FILENAME).toString();
+        String jsonTable = directory.resolve(Consts.USER_TABLE_FILENAME).toString();
+        String jsonGraph = directory.resolve(Consts.USER_GRAPH_FILENAME).toString();
+
+        long startTime = System.nanoTime();
+        User[] users;
+        SimpleGraph graph;
+        long bytes;
+        if (args[0].equals(IMPORT)) {
+            users = UserSnapshot.readJsonUsers(jsonTable);
+            graph = Files.exists(Paths.get(jsonGraph)) ? UserSnapshot.readJsonGraph(jsonGraph, users) : new SimpleGraph();
+            bytes = UserSnapshot.writeUsers(binaryTable, users) + UserSnapshot.writeGraph(binaryGraph, graph);
+        } else {
+            users = UserSnapshot.readUsers(binaryTable);
+            graph = Files.exists(Paths.get(binaryGraph)) ? UserSnapshot.readGraph(binaryGraph, users) : new SimpleGraph();
+            bytes = UserSnapshot.writeJsonUsers(jsonTable, users) + UserSnapshot.writeJsonGraph(jsonGraph, graph);
+        }
+
+        int count = 0;
+        for (User user : users) {
+            if (user != null)
+                count++;
+        }
+        System.out.printf("%d users converted in %.0f ms, %d bytes written%n", count, (System.nanoTime() - startTime) / 1e6, bytes);
+    }
+}
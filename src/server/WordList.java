@@ -0,0 +1,106 @@
+package server;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * An immutable list of words stored as UTF-8 bytes in a single array, with an offset table
+ *
+ * Compared to an array of strings it needs about the memory of the raw words,
+ * as there are no per-word objects. The strings are created only when a word is asked for
+ */
+class WordList {
+
+    private final byte[] words; //all the words, one after the other
+    private final int[] offsets; //word i is in words[offsets[i]] .. words[offsets[i + 1] - 1]
+    private final int size;
+
+    /**
+     * @param words The UTF-8 bytes of the words, one after the other
+     * @param offsets The start of each word in words, followed by the end of the last one
+     * @param size The number of words
+     */
+    WordList(byte[] words, int[] offsets, int size) {
+        this.words = words;
+        this.offsets = offsets;
+        this.size = size;
+    }
+
+    /**
+     * Loads a dictionary file by memory mapping it
+     * @param filename File with a word per line. Must have the size of the dictionary as a string in the first line,
+     *                 it is used to size the tables and it is not an error if it doesn't match the actual number of words
+     */
+    static WordList load(String filename) throws IOException {
+        MappedByteBuffer file;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename))) {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        //first line must contain the size of the dictionary
+        int position = 0;
+        int expectedSize = 0;
+        while (position < file.limit() && file.get(position) != '\n') {
+            int digit = file.get(position++) - '0';
+            if (digit >= 0 && digit <= 9)
+                expectedSize = expectedSize * 10 + digit;
+        }
+        position++;
+
+        //every other byte of the file but the newlines goes in the words
+        byte[] words = new byte[Math.max(0, file.limit() - position)];
+        int[] offsets = new int[expectedSize + 1];
+        int size = 0;
+        int length = 0; //bytes of words copied so far
+        while (position < file.limit()) {
+            int lineEnd = position;
+            while (lineEnd < file.limit() && file.get(lineEnd) != '\n')
+                lineEnd++;
+            int wordEnd = lineEnd;
+            if (wordEnd > position && file.get(wordEnd - 1) == '\r')
+                wordEnd--;
+
+            if (wordEnd > position) {
+                if (size + 1 >= offsets.length)
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2 + 2); //given size is lower than actual size
+                offsets[size++] = length;
+                file.position(position);
+                file.get(words, length, wordEnd - position);
+                length += wordEnd - position;
+            }
+            position = lineEnd + 1;
+        }
+        offsets[size] = length;
+
+        if (size != expectedSize)
+            System.err.println("Dictionary " + filename + " declares " + expectedSize + " words but contains " + size);
+        return new WordList(words, offsets, size);
+    }
+
+    /**
+     * @return The number of words
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The word at the given index
+     */
+    String get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Word " + index + " of " + size);
+        return new String(words, offsets[index], offsets[index + 1] - offsets[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The bytes used by the words and the offset table
+     */
+    long getMemoryFootprint() {
+        return words.length + (long) offsets.length * Integer.BYTES;
+    }
+}
@@ -0,0 +1,126 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Measures the startup cost of loading the challenge dictionaries: the load time and the heap
+ * taken by a WordList, compared to the loader it replaced, which kept the words as an array of strings
+ *
+ * Arguments: the dictionary files, 'dictionary' and 'long_dictionary' if none is given
+ */
+public class WordListBenchmark {
+
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) throws IOException {
+        String[] filenames = args.length > 0 ? args : new String[]{Consts.DICTIONARY_FILENAME, "long_dictionary"};
+        for (String filename : filenames) {
+            long fileSize = Files.size(Paths.get(filename));
+
+            WordList wordList = null;
+            long bestWordListTime = Long.MAX_VALUE;
+            long wordListHeap = 0;
+            for (int i = 0; i < RUNS; i++) {
+                wordList = null;
+                long usedBefore = usedHeap();
+                long startTime = System.nanoTime();
+                wordList = WordList.load(filename);
+                bestWordListTime = Math.min(bestWordListTime, System.nanoTime() - startTime);
+                wordListHeap = usedHeap() - usedBefore;
+            }
+
+            String[] strings = null;
+            long bestStringsTime = Long.MAX_VALUE;
+            long stringsHeap = 0;
+            for (int i = 0; i < RUNS; i++) {
+                strings = null;
+                long usedBefore = usedHeap();
+                long startTime = System.nanoTime();
+                strings = loadStrings(filename);
+                bestStringsTime = Math.min(bestStringsTime, System.nanoTime() - startTime);
+                stringsHeap = usedHeap() - usedBefore;
+            }
+
+            System.out.println(filename + ": " + wordList.size() + " words, " + fileSize / 1024 + " KB on disk");
+            System.out.printf("  WordList: %.2f ms, %d KB of heap (%d KB of tables)%n",
+                    bestWordListTime / 1e6, wordListHeap / 1024, wordList.getMemoryFootprint() / 1024);
+            System.out.printf("  old String[] loader: %.2f ms, %d KB of heap (%d words)%n",
+                    bestStringsTime / 1e6, stringsHeap / 1024, strings.length);
+        }
+    }
+
+    /**
+     * Copy of the dictionary loader of ChallengeHandler before WordList: reads the file in chunks of the length
+     * of the longest word, splits each chunk in lines and joins the words cut between two chunks
+     * @param filename File containing the dictionary. Must have the size of the dictionary as a string in the first line
+     */
+    private static String[] loadStrings(String filename) throws IOException {
+        String[] dictionary;
+        try (FileChannel inChannel = FileChannel.open(Paths.get(filename))) { //file has a word per line
+            int dictionaryIndex = 0;
+            int dictionaryLength;
+            ByteBuffer wordBuffer = ByteBuffer.allocate(Consts.ITALIAN_WORD_MAX_LENGTH + 1);
+            String words; //stores the string from the buffer
+            String[] wordsFragments; //stores the different lines contained in 'words'
+
+            //first line must contain the size of the dictionary as a string
+            inChannel.read(wordBuffer);
+            wordBuffer.flip();
+            words = new String(wordBuffer.array(), 0, wordBuffer.limit(), StandardCharsets.UTF_8);
+            wordsFragments = words.split("\n");
+            dictionaryLength = Integer.parseInt(wordsFragments[0]); //first lines is the size
+
+            dictionary = new String[dictionaryLength];
+
+            //store in the dictionary the overflowing words caught with the first read
+            for (int i = 1; i < wordsFragments.length; i++) {
+                dictionary[dictionaryIndex] = wordsFragments[i];
+                dictionaryIndex++;
+            }
+
+            //last word read was incomplete
+            if (words.charAt(words.length() - 1) != '\n')
+                dictionaryIndex--; //next time add to last word
+
+            while (inChannel.read(wordBuffer) != -1) {
+                wordBuffer.flip();
+                words = new String(wordBuffer.array(), 0, wordBuffer.limit(), StandardCharsets.UTF_8);
+                wordsFragments = words.split("\n");
+
+                //if first character is a newline then last word read is complete
+                if (words.charAt(0) == '\n')
+                    dictionaryIndex++;
+
+                for (String word : wordsFragments) {
+                    if (!word.isBlank()) {
+                        if (dictionary[dictionaryIndex] == null)
+                            dictionary[dictionaryIndex] = word;
+                        else
+                            dictionary[dictionaryIndex] += word;
+
+                        dictionaryIndex++;
+                    }
+                }
+
+                if (words.charAt(words.length() - 1) != '\n')
+                    dictionaryIndex--;
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * @return The heap in use after a garbage collection
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
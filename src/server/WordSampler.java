@@ -0,0 +1,116 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks random word ids following a Zipf-like distribution over the order of the dictionary,
+ * so that a frequency ordered dictionary gives common words more often than rare ones
+ *
+ * Uses the alias method: the table is built once in O(n) and every sample costs O(1)
+ * with two random numbers and no allocation. Random numbers come from ThreadLocalRandom
+ * so that concurrent samplers don't contend on a shared generator
+ */
+class WordSampler {
+
+    private final double[] probability; //chance of keeping the drawn column instead of its alias
+    private final int[] alias;
+
+    /**
+     * Builds the alias table for a dictionary of the given size, the word of rank i has weight 1 / (i + 1)^exponent
+     * @param size The number of words
+     * @param exponent The skew of the distribution, 0 gives every word the same chance
+     */
+    WordSampler(int size, double exponent) {
+        probability = new double[size];
+        alias = new int[size];
+
+        double[] weights = new double[size];
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            weights[i] = Math.pow(i + 1, -exponent);
+            total += weights[i];
+        }
+
+        //Vose's algorithm: columns under the mean are filled up with the excess of those above
+        ArrayDeque<Integer> small = new ArrayDeque<>();
+        ArrayDeque<Integer> large = new ArrayDeque<>();
+        for (int i = 0; i < size; i++) {
+            weights[i] = weights[i] * size / total;
+            if (weights[i] < 1)
+                small.add(i);
+            else
+                large.add(i);
+        }
+        while (!small.isEmpty() && !large.isEmpty()) {
+            int less = small.poll();
+            int more = large.poll();
+            probability[less] = weights[less];
+            alias[less] = more;
+            weights[more] = weights[more] + weights[less] - 1;
+            if (weights[more] < 1)
+                small.add(more);
+            else
+                large.add(more);
+        }
+        //only rounding errors are left
+        for (int i : large)
+            probability[i] = 1;
+        for (int i : small)
+            probability[i] = 1;
+    }
+
+    /**
+     * @return A random word id
+     */
+    int sample() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int column = random.nextInt(probability.length);
+        return random.nextDouble() < probability[column] ? column : alias[column];
+    }
+
+    /**
+     * The last words seen by a user, kept in a ring of word ids
+     *
+     * Thread safety is assured by synchronized methods
+     */
+    static class RecentWords {
+        private final int[] ring;
+        private int next = 0; //position of the next word to be added
+
+        /**
+         * @param size The number of words remembered
+         */
+        RecentWords(int size) {
+            ring = new int[Math.max(1, size)];
+            Arrays.fill(ring, -1);
+        }
+
+        synchronized void add(int[] wordIds) {
+            for (int wordId : wordIds) {
+                ring[next] = wordId;
+                next = (next + 1) % ring.length;
+            }
+        }
+
+        synchronized boolean contains(int wordId) {
+            for (int recentWord : ring) {
+                if (recentWord == wordId)
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return true if any of the given words has been seen recently
+         */
+        synchronized boolean containsAny(int[] wordIds) {
+            for (int wordId : wordIds) {
+                if (contains(wordId))
+                    return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Divides the changes to the user database in epochs, so that a snapshot can take a consistent image
+ * while the writers keep going
+ *
+ * A writer enters the current epoch before changing the data and exits it when done, stamping its changes
+ * with the epoch. A snapshot freezes the current epoch: it moves the writers to the next one and waits until
+ * those still in the frozen epoch are done, then it reads the data as it was at the end of the frozen epoch,
+ * ignoring the changes stamped with a later one. Writers never wait for the snapshot.
+ *
+ * Only two epochs can be active at the same time, so two counters of active writers are enough.
+ * Thread safety is assured by the use of atomic counters, freeze() must be called by one thread at a time
+ */
+class WriteEpoch {
+
+    private volatile int epoch = 0;
+    private final AtomicInteger[] activeWriters = {new AtomicInteger(0), new AtomicInteger(0)}; //by epoch parity
+
+    /**
+     * @return The epoch the writer is in, to be passed to exit()
+     */
+    int enter() {
+        while (true) {
+            int current = epoch;
+            AtomicInteger writers = activeWriters[current & 1];
+            writers.incrementAndGet();
+            if (epoch == current)
+                return current;
+            writers.decrementAndGet(); //frozen in the meanwhile, its writers might already be drained
+        }
+    }
+
+    void exit(int writerEpoch) {
+        activeWriters[writerEpoch & 1].decrementAndGet();
+    }
+
+    /**
+     * @return The current epoch, changes stamped with it might still be in progress
+     */
+    int current() {
+        return epoch;
+    }
+
+    /**
+     * Moves the writers to the next epoch and waits until those in the current one exit
+     * @return The frozen epoch, no more changes will be stamped with it
+     */
+    int freeze() {
+        int frozen = epoch;
+        epoch = frozen + 1;
+        AtomicInteger writers = activeWriters[frozen & 1];
+        while (writers.get() > 0)
+            Thread.yield(); //writers hold no lock the snapshot waits for, they are done in a few microseconds
+        return frozen;
+    }
+}